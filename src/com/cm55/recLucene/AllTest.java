@@ -7,6 +7,8 @@ import org.junit.runners.Suite.*;
 @RunWith(Suite.class) 
 @SuiteClasses( { 
   DuplicatedIdTest.class,
+  RlAsyncWriterTest.class,
+  RlCommitPolicyTest.class,
   RlAnalyzerTest.class,
   RlAnyTableTest.class,
   RlDatabaseDirTest.class,
@@ -14,15 +16,24 @@ import org.junit.runners.Suite.*;
   RlDatabaseTest.class,
   RlFieldConverterTest.class,
   RlFieldTest.class,
+  RlFingerprintTest.class,
+  RlQueryCacheTest.class,
   RlQueryTest.class,
+  RlRebuildTest.class,
+  RlReindexTest.class,
+  RlResultCacheTest.class,
   RlSearcherTest.class,
   RlSemaphoreTest.class,
   RlSemaphoreMultiTest.class,
+  RlSnapshotTest.class,
+  RlSortFieldsTest.class,
   RlTableTest.class,
   RlTableSetTest.class, 
+  RlUpdatableFieldTest.class,
   RlValuesTest.class,
   RlValuesTotalTest.class,
   RlWriterTest.class,
+  RlWriterOptionsTest.class,
   LuceneAnalyzerTest.class,
   LuceneTokenizerTest.class,
 })
@@ -1,5 +1,6 @@
 package com.cm55.recLucene;
 
+import java.io.*;
 import java.util.*;
 import java.util.stream.*;
 
@@ -17,6 +18,14 @@ public class RlAnyTable implements RlTable<RlValues> {
   
   private final Map<String, Analyzer>fieldAnalyzers;
   
+  /** 定義順の全フィールド */
+  private final RlField<?>[] fields;
+  
+  /** {@link Document}作成手順 */
+  private volatile RlDocumentPlan documentPlan;
+  
+  /** {@link RlValues}からの値の取得方法 */
+  private static final RlDocumentPlan.ValueGetter<RlValues> VALUES_GETTER = (f, values)->values.get(f.getName());
   
   public RlAnyTable(Collection<RlField<?>>fields) {
     this(fields.toArray(new RlField[0]));
@@ -47,6 +56,62 @@ public class RlAnyTable implements RlTable<RlValues> {
     
     pkField = _pkField;
     fieldAnalyzers = createFieldAnalyzers(fieldMap.values());
+    this.fields = fields;
+    documentPlan = new RlDocumentPlan(fields);
+  }
+  
+  /**
+   * フィンガープリントモードを設定する。
+   * <p>
+   * trueの場合、書き込み時に全フィールド値のハッシュ値（フィンガープリント）を隠しフィールドとして格納する。
+   * {@link RlWriter#writeIfChanged(RlAnyTable, RlValues)}は、プライマリキーで既存のドキュメントを探し、
+   * そのフィンガープリントが同一であれば書き込みを行わない。
+   * プライマリキーが必要である。書き込みを行う前に設定すること。
+   * </p>
+   * @param value true:フィンガープリントを格納する
+   * @return このテーブル
+   */
+  public RlAnyTable setFingerprint(boolean value) {
+    if (!value) {
+      documentPlan = new RlDocumentPlan(fields);
+      return this;
+    }
+    if (pkField == null) {
+      throw new RlException("フィンガープリントにはプライマリキーが必要です");
+    }
+    documentPlan = new RlDocumentPlan(fields, pkField.getName() + "$fingerprint");
+    return this;
+  }
+  
+  /** フィンガープリントモードであるか */
+  public boolean isFingerprint() {
+    return documentPlan.getFingerprintField() != null;
+  }
+  
+  /**
+   * 値マップの内容が、インデックス中のドキュメントと同一であるかを判定する
+   * @param values 値マップ
+   * @param reader ドキュメントを含むリーダ
+   * @param docId リーダ中のドキュメントID
+   * @return true:同一である
+   * @throws IOException
+   */
+  boolean isUnchanged(RlValues values, LeafReader reader, int docId) throws IOException {
+    return documentPlan.isUnchanged(values, VALUES_GETTER, reader, docId);
+  }
+  
+  /**
+   * 任意のレコードの内容が、インデックス中のドキュメントと同一であるかを判定する
+   * @param source レコード
+   * @param getter 値の取得方法
+   * @param reader ドキュメントを含むリーダ
+   * @param docId リーダ中のドキュメントID
+   * @return true:同一である
+   * @throws IOException
+   */
+  <R> boolean isUnchanged(R source, RlDocumentPlan.ValueGetter<R> getter, LeafReader reader, int docId) 
+      throws IOException {
+    return documentPlan.isUnchanged(source, getter, reader, docId);
   }
   
   public Stream<Map.Entry<String, Analyzer>>getFieldAnalyzers() {
@@ -77,15 +142,37 @@ public class RlAnyTable implements RlTable<RlValues> {
   }
   
   public Document getDocument(RlValues values) {
-    Document doc = new Document();
-    getFields().forEach(field-> {
-    
-      Field lField = field.getLuceneField(values);
-      if (lField == null)
-        return; // 値がnullの場合はnullのフィールドが返る。登録しない。
-      doc.add(lField);
-    });
-    return doc;
+    return documentPlan.getDocument(values, VALUES_GETTER);
+  }
+  
+  /**
+   * 書き込み用に、呼び出しスレッドで再利用される{@link Document}を取得する。
+   * 同じスレッドで次に呼び出されるまでのあいだのみ有効である。
+   * @param values 値マップ
+   * @return 再利用ドキュメント
+   */
+  Document getReusableDocument(RlValues values) {
+    return documentPlan.getReusableDocument(values, VALUES_GETTER);
+  }
+  
+  /**
+   * 任意のレコードから値を取得して{@link Document}を作成する
+   * @param source レコード
+   * @param getter 値の取得方法
+   * @return 新たなドキュメント
+   */
+  <R> Document getDocument(R source, RlDocumentPlan.ValueGetter<R> getter) {
+    return documentPlan.getDocument(source, getter);
+  }
+  
+  /**
+   * 任意のレコードから値を取得して、呼び出しスレッドで再利用される{@link Document}を取得する。
+   * @param source レコード
+   * @param getter 値の取得方法
+   * @return 再利用ドキュメント
+   */
+  <R> Document getReusableDocument(R source, RlDocumentPlan.ValueGetter<R> getter) {
+    return documentPlan.getReusableDocument(source, getter);
   }
   
   public RlValues fromDocument(Document doc) {
@@ -6,6 +6,8 @@ import java.util.*;
 import java.util.stream.*;
 
 import org.apache.lucene.analysis.*;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
 import org.junit.*;
 
 public class RlAnyTableTest {
@@ -31,6 +33,30 @@ public class RlAnyTableTest {
     );
   }
   
+  @Test
+  public void 再利用ドキュメント() {
+    RlClassTable<Foo> table = new RlClassTable<Foo>(Foo.class);
+    Foo foo = new Foo();
+    foo.id = "1";
+    foo.a = "abc";
+    Document doc1 = table.getReusableDocument(foo);
+    assertEquals("1", doc1.get("id"));
+    assertEquals(2, doc1.getFields().size());
+    
+    foo.id = "2";
+    foo.a = null;
+    foo.b = "xyz";
+    Document doc2 = table.getReusableDocument(foo);
+    assertSame(doc1, doc2);
+    assertEquals("2", doc2.get("id"));
+    assertNull(doc2.getField("a"));
+    assertNotNull(doc2.getField("b"));
+    
+    // 通常のドキュメントは再利用されない
+    assertNotSame(table.getDocument(foo), table.getDocument(foo));
+    assertEquals(new Term("id", "2"), table.getPkTerm(foo));
+  }
+  
   public static class Foo {
     @RlFieldAttr(pk=true)
     public String id;
@@ -0,0 +1,151 @@
+package com.cm55.recLucene;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * 非同期ライタ
+ * <p>
+ * {@link RlDatabase#createAsyncWriter()}によって取得される。レコードのバッチを受け付けて有限長のキューに格納し、
+ * バックグラウンドのスレッドで{@link RlWriter}を通して書き込みを行う。
+ * 呼び出し側は書き込み完了を待つことなく戻るため、{@link org.apache.lucene.index.IndexWriter}のフラッシュや
+ * マージによる遅延の影響を受けない。
+ * </p>
+ * <p>
+ * キューが満杯の場合には、{@link WhenFull}の指定によって、空きができるまでブロックするか、あるいは
+ * {@link RlException.Rejected}を投げて拒否する。
+ * </p>
+ * <p>
+ * 内部で一つの{@link RlWriter}を保持するため、{@link #close()}するまで他のライタを取得することはできない。
+ * この{@link RlWriter}はすべてのバックグラウンドスレッドで共有されるが、使用するのは
+ * {@link RlWriter#write(Object)}、{@link RlWriter#write(RlAnyTable, RlValues)}のみであり、これらは
+ * {@link RlWriter#writeAll(Iterable)}と同じく複数のスレッドから同時に呼び出すことができる。
+ * </p>
+ * @author ysugimura
+ */
+public class RlAsyncWriter implements Closeable {
+
+  /** キューが満杯の場合の動作 */
+  public enum WhenFull {
+    /** 空きができるまでブロックする */
+    BLOCK,
+    /** {@link RlException.Rejected}を投げる */
+    REJECT
+  }
+
+  /** スレッド名称用の番号 */
+  private static final AtomicInteger threadNumber = new AtomicInteger();
+  
+  /** 書き込みを行うライタ */
+  private final RlWriter writer;
+
+  /** バックグラウンドスレッドのエグゼキュータ */
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * 初期化
+   * @param writer 書き込みを行うライタ
+   * @param threads バックグラウンドスレッド数
+   * @param queueSize キューに格納可能なバッチ数
+   * @param whenFull キューが満杯の場合の動作
+   */
+  RlAsyncWriter(RlWriter writer, int threads, int queueSize, WhenFull whenFull) {
+    checkArguments(threads, queueSize);
+    this.writer = writer;
+    executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+      new ArrayBlockingQueue<Runnable>(queueSize),
+      r-> {
+        Thread thread = new Thread(r, "RlAsyncWriter-" + threadNumber.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      },
+      whenFull == WhenFull.BLOCK? RlAsyncWriter::blockWhenFull:new ThreadPoolExecutor.AbortPolicy()
+    );
+  }
+
+  /**
+   * 引数をチェックする。ライタを取得する前に呼び出される
+   * @param threads バックグラウンドスレッド数
+   * @param queueSize キューに格納可能なバッチ数
+   */
+  static void checkArguments(int threads, int queueSize) {
+    if (threads <= 0 || queueSize <= 0) {
+      throw new RlException.Usage("スレッド数、キューサイズは1以上でなければなりません");
+    }
+  }
+
+  /** キューが満杯の場合、空きができるまで待ってから格納する */
+  private static void blockWhenFull(Runnable r, ThreadPoolExecutor executor) {
+    if (executor.isShutdown()) {
+      throw new RejectedExecutionException("closed");
+    }
+    try {
+      executor.getQueue().put(r);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RlException(ex);
+    }
+    
+    // 格納するまでの間にシャットダウンされた場合、既にスレッドが終了していて実行されないことがある。
+    // 取り除けた場合は拒否し、取り除けなかった場合はスレッドが取得済みであるため実行される
+    if (executor.isShutdown() && executor.remove(r)) {
+      throw new RejectedExecutionException("closed");
+    }
+  }
+
+  /**
+   * レコードのバッチを書き込みキューに格納する。
+   * @param recs 書き込みレコード
+   * @return バッチのすべてのレコードの書き込みが終了した時点で完了するフューチャ
+   */
+  public <T> CompletableFuture<Void> submit(Collection<T> recs) {
+    List<T> batch = new ArrayList<>(recs);
+    return submit(()->batch.forEach(writer::write));
+  }
+  
+  /**
+   * 自由形式の値のバッチを書き込みキューに格納する。
+   * @param table テーブル
+   * @param values 値マップ
+   * @return バッチのすべての値の書き込みが終了した時点で完了するフューチャ
+   */
+  public CompletableFuture<Void> submit(RlAnyTable table, Collection<RlValues> values) {
+    List<RlValues> batch = new ArrayList<>(values);
+    return submit(()->batch.forEach(v->writer.write(table, v)));
+  }
+
+  private CompletableFuture<Void> submit(Runnable task) {
+    try {
+      return CompletableFuture.runAsync(task, executor);
+    } catch (RejectedExecutionException ex) {
+      throw new RlException.Rejected(ex);
+    }
+  }
+
+  /** 
+   * 現在キューに格納されているバッチ数を取得する
+   * @return バッチ数
+   */
+  public int getQueuedCount() {
+    return executor.getQueue().size();
+  }
+  
+  /**
+   * クローズする。
+   * キューに格納されたすべてのバッチの書き込みが終了するのを待ってから、内部の{@link RlWriter}をクローズする。
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      while (!executor.awaitTermination(1, TimeUnit.SECONDS));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RlException(ex);
+    } finally {
+      writer.close();
+    }
+  }
+}
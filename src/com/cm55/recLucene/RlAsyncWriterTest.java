@@ -0,0 +1,90 @@
+package com.cm55.recLucene;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+public class RlAsyncWriterTest {
+
+  RlDatabase database;
+  
+  @Before
+  public void before() {
+    database = new RlDatabase.Ram().add(Foo.class);
+  }
+  
+  @Test
+  public void 非同期書き込み() throws Exception {
+    List<CompletableFuture<Void>>futures = new ArrayList<>();
+    try (RlAsyncWriter writer = database.createAsyncWriter(2, 4, RlAsyncWriter.WhenFull.BLOCK)) {
+      for (int batch = 0; batch < 20; batch++) {
+        List<Foo>recs = new ArrayList<>();
+        for (int i = 0; i < 50; i++) recs.add(new Foo(batch + "-" + i, "test"));
+        futures.add(writer.submit(recs));
+      }
+      for (CompletableFuture<Void> future: futures) future.get();
+      
+      // 非同期ライタが稼働中に、他のライタを作成することはできない。
+      assertNull(database.tryCreateWriter());
+    }
+    
+    try (RlSearcher<Foo> searcher = database.createSearcher(Foo.class)) {
+      assertEquals(1000, searcher.getAllByPk().size());
+    }
+    
+    // クローズ後は新たなライタを作成可能
+    RlWriter writer = database.tryCreateWriter();
+    assertNotNull(writer);
+    writer.close();
+  }
+  
+  @Test
+  public void クローズ後は拒否() {
+    RlAsyncWriter writer = database.createAsyncWriter(1, 1, RlAsyncWriter.WhenFull.REJECT);
+    writer.close();
+    try {
+      writer.submit(Arrays.asList(new Foo("1", "test")));
+      fail();
+    } catch (RlException.Rejected ex) {
+    }
+  }
+
+  @Test
+  public void 不正な引数() {
+    try {
+      database.createAsyncWriter(0, 1, RlAsyncWriter.WhenFull.BLOCK);
+      fail();
+    } catch (RlException.Usage ex) {
+    }
+    
+    // ライタは取得されたままにならない
+    RlWriter writer = database.tryCreateWriter();
+    assertNotNull(writer);
+    writer.close();
+    
+    // ブロック指定でもクローズ後は拒否される
+    RlAsyncWriter asyncWriter = database.createAsyncWriter(1, 1, RlAsyncWriter.WhenFull.BLOCK);
+    asyncWriter.close();
+    try {
+      asyncWriter.submit(Arrays.asList(new Foo("1", "test")));
+      fail();
+    } catch (RlException.Rejected ex) {
+    }
+  }
+
+  public static class Foo {
+    @RlFieldAttr(pk=true)
+    public String id;
+    
+    public String text;
+    
+    public Foo() {}
+    public Foo(String id, String text) {
+      this.id = id;
+      this.text = text;
+    }
+  }
+}
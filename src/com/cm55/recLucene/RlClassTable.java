@@ -1,5 +1,6 @@
 package com.cm55.recLucene;
 
+import java.io.*;
 import java.lang.reflect.*;
 import java.util.*;
 import java.util.stream.*;
@@ -19,6 +20,15 @@ public class RlClassTable<T> implements RlTable<T> {
   /** フィールド名/{@link RlField}マップ */
   private final RlAnyTable anyTable;
 
+  /** レコードオブジェクトからの値の取得方法 */
+  private static final RlDocumentPlan.ValueGetter<Object> OBJECT_GETTER = (f, o)-> {
+    try {
+      return f.getJavaField().get(o);
+    } catch (IllegalAccessException ex) {
+      throw new RlException(ex);
+    }
+  };
+
   /**
    * クラスを指定してマッピングを作成する
    * @param recordClass マッピング対象クラス
@@ -44,6 +54,22 @@ public class RlClassTable<T> implements RlTable<T> {
     anyTable = new RlAnyTable(fieldsFromClass);
   }
   
+  /**
+   * フィンガープリントモードを設定する。{@link RlAnyTable#setFingerprint(boolean)}を参照のこと。
+   * {@link RlWriter#writeIfChanged(Object)}は、内容が同一であれば書き込みを行わない。
+   * @param value true:フィンガープリントを格納する
+   * @return このテーブル
+   */
+  public RlClassTable<T> setFingerprint(boolean value) {
+    anyTable.setFingerprint(value);
+    return this;
+  }
+  
+  /** フィンガープリントモードであるか */
+  public boolean isFingerprint() {
+    return anyTable.isFingerprint();
+  }
+  
   public Stream<Map.Entry<String, Analyzer>>getFieldAnalyzers() {
     return anyTable.getFieldAnalyzers();
   }
@@ -98,15 +124,44 @@ public class RlClassTable<T> implements RlTable<T> {
    * 指定されたレコードオブジェクトのプライマリキー{@link Term}を取得する。
    */
   public Term getPkTerm(Object object) {
-    RlField<?> pkField = anyTable.getPkField();
+    if (object instanceof RlValues) return anyTable.getPkTerm((RlValues)object);
+    @SuppressWarnings("unchecked")
+    RlField<Object> pkField = (RlField<Object>)anyTable.getPkField();
     if (pkField == null) return null;
-    return anyTable.getPkTerm(convertToValues(object));
+    String value = pkField.toString(OBJECT_GETTER.get(pkField, object));
+    if (value == null) {
+      throw new RlException("プライマリキーがnullです");
+    }
+    return new Term(pkField.getName(), value);
   }
 
   /** レコードオブジェクトから{@link Document}オブジェクトを作成 */
   @Override
   public Document getDocument(T object) {
-    return anyTable.getDocument(convertToValues(object));
+    if (object instanceof RlValues) return anyTable.getDocument((RlValues)object);
+    return anyTable.getDocument(object, OBJECT_GETTER);
+  }
+  
+  /**
+   * 書き込み用に、レコードオブジェクトから呼び出しスレッドで再利用される{@link Document}を取得する。
+   * 同じスレッドで次に呼び出されるまでのあいだのみ有効である。
+   * @param object レコードオブジェクト
+   * @return 再利用ドキュメント
+   */
+  Document getReusableDocument(T object) {
+    return anyTable.getReusableDocument(object, OBJECT_GETTER);
+  }
+
+  /**
+   * レコードオブジェクトの内容が、インデックス中のドキュメントと同一であるかを判定する
+   * @param object レコードオブジェクト
+   * @param reader ドキュメントを含むリーダ
+   * @param docId リーダ中のドキュメントID
+   * @return true:同一である
+   * @throws IOException
+   */
+  boolean isUnchanged(T object, LeafReader reader, int docId) throws IOException {
+    return anyTable.isUnchanged(object, OBJECT_GETTER, reader, docId);
   }
 
   /** {@link Document}オブジェクトからレコードオブジェクトを作成 */
@@ -115,20 +170,6 @@ public class RlClassTable<T> implements RlTable<T> {
     return (T)convertFromValues(anyTable.fromDocument(doc));    
   }
 
-  /** レコードオブジェクトから{@link RlValue}オブジェクトを作成 */
-  private RlValues convertToValues(Object o) {
-    if (o instanceof RlValues) return (RlValues)o;
-    RlValues result = new RlValues();
-    anyTable.getFields().forEach(f-> {
-      try {
-        result.put(f.getName(), f.getJavaField().get(o));
-      } catch (Exception ex) {
-        throw new RlException(ex);
-      }
-    });
-    return result;
-  }
-
   /** {@link RlValues}オブジェクトからレコードオブジェクトを作成 */
   @SuppressWarnings("unchecked")
   private T convertFromValues(RlValues values) {
@@ -138,7 +179,11 @@ public class RlClassTable<T> implements RlTable<T> {
       T object = (T) recordClass.newInstance();
       anyTable.getFields().forEach(f -> {
         try {
-          f.getJavaField().set(object, values.get(f.getName()));
+          Object value = values.get(f.getName());
+          
+          // ストアされていないか読み込まれていないプリミティブ型のフィールドは初期値のままとする
+          if (value == null && f.getJavaField().getType().isPrimitive()) return;
+          f.getJavaField().set(object, value);
         } catch (Exception ex) {
           throw new RlException(ex);
         }
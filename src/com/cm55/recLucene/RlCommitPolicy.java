@@ -0,0 +1,124 @@
+package com.cm55.recLucene;
+
+/**
+ * コミットポリシー
+ * <p>
+ * Luceneのコミットはセグメントファイルのfsyncを伴うため、頻繁に行うと書き込みが遅くなる。
+ * このポリシーによって、いつコミットを行うかを決定する。{@link RlWriterOptions.Builder#setCommitPolicy(RlCommitPolicy)}
+ * で指定する。
+ * </p>
+ * <p>
+ * バックグラウンドでコミットを行うポリシーの場合、データベースに一つのコミットスレッドが作成され、
+ * 複数の{@link RlWriter}による書き込みをまとめて一度にコミットする。
+ * いずれのポリシーであっても、{@link RlWriter#flush()}によって直ちにコミットすることができ、
+ * {@link RlWriter#awaitDurable()}によって、そのライタの書き込みがコミットされるまで待つことができる。
+ * </p>
+ * @author ysugimura
+ */
+public interface RlCommitPolicy {
+
+  /** 
+   * {@link RlWriter#close()}時にコミットするか
+   * @return true:クローズ時にコミットする
+   */
+  public default boolean isCommitOnWriterClose() {
+    return false;
+  }
+  
+  /**
+   * バックグラウンドでコミットの必要性をチェックする間隔(ミリ秒)
+   * @return チェック間隔。0の場合はバックグラウンドでのコミットを行わない。
+   */
+  public default long getCheckIntervalMillis() {
+    return 0;
+  }
+  
+  /**
+   * バックグラウンドでコミットを行うべきかを判断する。
+   * コミットされていない変更がある場合にのみ呼び出される。
+   * @param uncommittedOps 前回のコミット以降の（おおよその）書き込み・削除操作数
+   * @param elapsedMillis 前回のコミットからの経過時間(ミリ秒)
+   * @return true:コミットする
+   */
+  public default boolean shouldCommit(long uncommittedOps, long elapsedMillis) {
+    return false;
+  }
+  
+  /**
+   * {@link RlWriter#close()}のたびにコミットするポリシー。デフォルトのポリシーである。
+   * 複数のライタが同時にクローズされた場合は、一度のコミットにまとめられる。
+   * @return ポリシー
+   */
+  public static RlCommitPolicy onWriterClose() {
+    return new RlCommitPolicy() {
+      @Override
+      public boolean isCommitOnWriterClose() {
+        return true;
+      }
+      @Override
+      public String toString() {
+        return "onWriterClose";
+      }
+    };
+  }
+  
+  /**
+   * 指定時間ごとにバックグラウンドでコミットするポリシー
+   * @param millis コミット間隔(ミリ秒)
+   * @return ポリシー
+   */
+  public static RlCommitPolicy everyMillis(long millis) {
+    if (millis <= 0) throw new RlException.Config("コミット間隔は1以上でなければなりません");
+    return new RlCommitPolicy() {
+      @Override
+      public long getCheckIntervalMillis() {
+        return millis;
+      }
+      @Override
+      public boolean shouldCommit(long uncommittedOps, long elapsedMillis) {
+        return elapsedMillis >= millis;
+      }
+      @Override
+      public String toString() {
+        return "everyMillis:" + millis;
+      }
+    };
+  }
+  
+  /**
+   * 指定数の操作ごとにバックグラウンドでコミットするポリシー
+   * @param ops コミットを行う操作数
+   * @return ポリシー
+   */
+  public static RlCommitPolicy everyOps(long ops) {
+    if (ops <= 0) throw new RlException.Config("操作数は1以上でなければなりません");
+    return new RlCommitPolicy() {
+      @Override
+      public long getCheckIntervalMillis() {
+        return 100;
+      }
+      @Override
+      public boolean shouldCommit(long uncommittedOps, long elapsedMillis) {
+        return uncommittedOps >= ops;
+      }
+      @Override
+      public String toString() {
+        return "everyOps:" + ops;
+      }
+    };
+  }
+  
+  /**
+   * 明示的な{@link RlWriter#flush()}、{@link RlWriter#awaitDurable()}、{@link RlDatabase#flush()}、
+   * あるいはデータベースのクローズ時にのみコミットするポリシー
+   * @return ポリシー
+   */
+  public static RlCommitPolicy explicit() {
+    return new RlCommitPolicy() {
+      @Override
+      public String toString() {
+        return "explicit";
+      }
+    };
+  }
+}
@@ -0,0 +1,113 @@
+package com.cm55.recLucene;
+
+import static org.junit.Assert.*;
+
+import org.apache.lucene.index.*;
+import org.junit.*;
+
+public class RlCommitPolicyTest {
+
+  RlDatabase database;
+  
+  @Before
+  public void before() {
+    database = new RlDatabase.Ram().add(Foo.class);
+  }
+  
+  @After
+  public void after() {
+    database.close();
+  }
+  
+  @Test
+  public void クローズ時のコミット() throws Exception {
+    RlWriter writer = database.createWriter();
+    writer.write(new Foo("1"));
+    assertEquals(0, committedDocs());
+    writer.close();
+    assertEquals(1, committedDocs());
+  }
+  
+  @Test
+  public void 明示的なコミット() throws Exception {
+    setPolicy(RlCommitPolicy.explicit());
+    
+    RlWriter writer = database.createWriter();
+    writer.write(new Foo("1"));
+    writer.close();
+    assertEquals(0, committedDocs());
+
+    writer = database.createWriter();
+    writer.write(new Foo("2"));
+    writer.awaitDurable();
+    assertEquals(2, committedDocs());
+    
+    writer.write(new Foo("3"));
+    writer.close();
+    assertEquals(2, committedDocs());
+    
+    database.flush();
+    assertEquals(3, committedDocs());
+  }
+  
+  @Test
+  public void 時間ごとのコミット() throws Exception {
+    setPolicy(RlCommitPolicy.everyMillis(20));
+    
+    RlWriter writer = database.createWriter();
+    writer.write(new Foo("1"));
+    writer.close();
+    
+    awaitCommittedDocs(1);
+  }
+  
+  @Test
+  public void 操作数ごとのコミット() throws Exception {
+    setPolicy(RlCommitPolicy.everyOps(10));
+
+    try (RlWriter writer = database.createWriter()) {
+      writer.write(new Foo("1"));
+      Thread.sleep(300);
+      assertEquals(0, committedDocs());
+  
+      // 10件目の書き込みが完了するまではコミットされないため、コミットには10件すべてが含まれる
+      for (int i = 2; i <= 10; i++) writer.write(new Foo("" + i));
+      awaitCommittedDocs(10);
+      
+      // 指定数に満たない操作はコミットされない
+      for (int i = 11; i <= 15; i++) writer.write(new Foo("" + i));
+      Thread.sleep(300);
+      assertEquals(10, committedDocs());
+      
+      writer.awaitDurable();
+      assertEquals(15, committedDocs());
+    }
+  }
+  
+  /** バックグラウンドのコミットによって指定数がコミットされるまで待つ */
+  void awaitCommittedDocs(int expected) throws Exception {
+    for (int i = 0; i < 500 && committedDocs() < expected; i++) Thread.sleep(20);
+    assertEquals(expected, committedDocs());
+  }
+  
+  void setPolicy(RlCommitPolicy policy) {
+    database.setWriterOptions(new RlWriterOptions.Builder().setCommitPolicy(policy).build());
+  }
+  
+  int committedDocs() throws Exception {
+    if (!DirectoryReader.indexExists(database.getDirectory())) return 0;
+    try (DirectoryReader reader = DirectoryReader.open(database.getDirectory())) {
+      return reader.numDocs();
+    }
+  }
+  
+  public static class Foo {
+    @RlFieldAttr(pk=true)
+    public String id;
+    
+    public Foo() {}
+    public Foo(String id) {
+      this.id = id;
+    }
+  }
+}
@@ -0,0 +1,194 @@
+package com.cm55.recLucene;
+
+import java.io.*;
+
+import org.apache.lucene.index.*;
+
+/**
+ * {@link IndexWriter}のコミットを行う。
+ * <p>
+ * {@link RlWriterHolder}によって、{@link IndexWriter}一つにつき一つ作成される。
+ * 複数のスレッドから同時にコミットが要求された場合には、一度のコミットにまとめる（グループコミット）。
+ * また、{@link RlCommitPolicy}がバックグラウンドでのコミットを指定している場合には、コミットスレッドを起動する。
+ * </p>
+ * <p>
+ * コミット済みの範囲はLuceneの操作シーケンス番号で管理する。{@link IndexWriter}の書き込み・削除操作は
+ * シーケンス番号を返し、コミットは、それに含まれる最後の操作のシーケンス番号を返す。
+ * </p>
+ * @author ysugimura
+ */
+class RlCommitter implements Closeable {
+
+  /** 対象とする{@link IndexWriter} */
+  private final IndexWriter indexWriter;
+  
+  /** コミットポリシー */
+  private RlCommitPolicy policy;
+  
+  /** コミットのためのロック */
+  private final Object commitLock = new Object();
+
+  /** コミット済みの操作シーケンス番号 */
+  private volatile long durableSequence;
+  
+  /** 最後にコミットした時刻 */
+  private volatile long lastCommitMillis = System.currentTimeMillis();
+  
+  /** コミットスレッド。バックグラウンドでのコミットを行わない場合はnull */
+  private Thread thread;
+  
+  /** バックグラウンドでのコミットで発生した例外。次のコミット要求時に投げられる */
+  private volatile RlException failure;
+  
+  RlCommitter(IndexWriter indexWriter, RlCommitPolicy policy) {
+    this.indexWriter = indexWriter;
+    this.durableSequence = indexWriter.getMaxCompletedSequenceNumber();
+    setPolicy(policy);
+  }
+
+  /** 現在のポリシーを取得する */
+  synchronized RlCommitPolicy getPolicy() {
+    return policy;
+  }
+  
+  /**
+   * ポリシーを切り替える。必要であればコミットスレッドを起動あるいは停止する
+   * @param policy 新たなポリシー
+   */
+  void setPolicy(RlCommitPolicy policy) {
+    synchronized (this) {
+      this.policy = policy;
+    }
+    stopThread();
+    long interval = policy.getCheckIntervalMillis();
+    if (interval <= 0) return;
+    Thread newThread = new Thread(()->run(interval), "RlCommitter");
+    newThread.setDaemon(true);
+    synchronized (this) {
+      thread = newThread;
+    }
+    newThread.start();
+  }
+  
+  /** コミットスレッドを停止し、その終了を待つ */
+  private void stopThread() {
+    Thread stopping;
+    synchronized (this) {
+      stopping = thread;
+      thread = null;
+      notifyAll();
+    }
+    if (stopping == null || stopping == Thread.currentThread()) return;
+    try {
+      stopping.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+  
+  /** コミットスレッドの処理 */
+  private void run(long interval) {
+    Thread self = Thread.currentThread();
+    while (true) {
+      RlCommitPolicy current;
+      synchronized (this) {
+        if (thread != self) return;
+        try {
+          wait(interval);
+        } catch (InterruptedException ex) {
+          return;
+        }
+        if (thread != self) return;
+        current = policy;
+      }
+      try {
+        if (!indexWriter.hasUncommittedChanges()) continue;
+        long ops = indexWriter.getMaxCompletedSequenceNumber() - durableSequence;
+        if (current.shouldCommit(ops, System.currentTimeMillis() - lastCommitMillis)) {
+          flush();
+        }
+      } catch (org.apache.lucene.store.AlreadyClosedException ex) {
+        return;
+      } catch (RlException ex) {
+        failure = ex;
+      } catch (RuntimeException ex) {
+        // スレッドを終了させずに、次のflush()、awaitDurable()で投げる
+        failure = new RlException(ex);
+      }
+    }
+  }
+  
+  /**
+   * ライタがクローズされたことを通知する。
+   * ポリシーがクローズ時のコミットを指定していればその書き込みがコミットされるまで待ち、
+   * そうでなければコミットスレッドにチェックを促す。
+   * @param sequence そのライタの最後の操作のシーケンス番号
+   */
+  void writerClosed(long sequence) {
+    if (getPolicy().isCommitOnWriterClose()) {
+      awaitDurable(sequence);
+      return;
+    }
+    synchronized (this) {
+      notifyAll();
+    }
+  }
+  
+  /**
+   * 指定されたシーケンス番号までの操作がコミットされることを保証する。
+   * 既にコミットされていれば何もしない。他のスレッドがコミット中であれば、それが終了するのを待ってから
+   * 再度チェックするため、同時に呼び出された場合は一度のコミットにまとめられる。
+   * @param sequence シーケンス番号
+   */
+  void awaitDurable(long sequence) {
+    throwFailure();
+    if (durableSequence >= sequence) return;
+    synchronized (commitLock) {
+      if (durableSequence >= sequence) return;
+      commit();
+    }
+  }
+  
+  /**
+   * これまでのすべての操作を直ちにコミットする。
+   */
+  void flush() {
+    throwFailure();
+    synchronized (commitLock) {
+      commit();
+    }
+  }
+
+  /** 現在コミット済みの操作シーケンス番号を取得する */
+  long getDurableSequence() {
+    return durableSequence;
+  }
+  
+  /** コミットを行う。commitLockを取得した状態で呼び出されること */
+  private void commit() {
+    try {
+      long sequence = indexWriter.commit();
+      if (sequence > durableSequence) durableSequence = sequence;
+      lastCommitMillis = System.currentTimeMillis();
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    }
+  }
+  
+  /** バックグラウンドでのコミットで発生した例外があれば投げる */
+  private void throwFailure() {
+    RlException ex = failure;
+    if (ex == null) return;
+    failure = null;
+    throw ex;
+  }
+  
+  /** 
+   * クローズする。コミットスレッドを停止する。
+   * 最終的なコミットは{@link IndexWriter#close()}によって行われる。
+   */
+  @Override
+  public void close() {
+    stopThread();
+  }
+}
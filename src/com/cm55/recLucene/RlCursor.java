@@ -0,0 +1,62 @@
+package com.cm55.recLucene;
+
+import java.io.*;
+
+import org.apache.lucene.search.*;
+
+/**
+ * ページ検索のカーソル。
+ * <p>
+ * {@link RlSearcher#searchPage(RlQuery, RlSortFields, int, RlCursor)}の結果として返され、
+ * 次のページを検索する際に指定する。前ページの最後のヒットの位置（スコアあるいはソートフィールドの値と
+ * ドキュメントID）を保持しており、{@link IndexSearcher#searchAfter(ScoreDoc, Query, int)}によって
+ * その次から検索するため、深いページであっても先頭ページと同じコストで検索できる。
+ * </p>
+ * <p>
+ * カーソルは、それを返したものと同じサーチャ・クエリ・ソート指定で使用しなければならない。
+ * ドキュメントIDはインデックスの時点ごとに異なるため、カーソルは先頭ページを検索した時点のインデックスを保持しており、
+ * 以降のページも同じインデックスに対して検索される。このため、ページの間にインデックスが更新されても、結果の重複や欠落は起こらない。
+ * 最後のページまで取得せずに止める場合は、{@link #close()}によって保持しているインデックスを解放すること。
+ * </p>
+ * @author ysugimura
+ */
+public class RlCursor implements Closeable {
+
+  /** 先頭ページを検索した時点のインデックス */
+  final RlSearcher<?>.Pinned pinned;
+  
+  /** 前ページの最後のヒット */
+  final ScoreDoc after;
+  
+  /** ソート指定ありの検索によるものか */
+  final boolean sorted;
+  
+  /** これまでに返したヒット数 */
+  final long position;
+  
+  RlCursor(RlSearcher<?>.Pinned pinned, ScoreDoc after, boolean sorted, long position) {
+    this.pinned = pinned;
+    this.after = after;
+    this.sorted = sorted;
+    this.position = position;
+  }
+  
+  /** これまでのページで返したヒット数を取得する */
+  public long getPosition() {
+    return position;
+  }
+  
+  /** 
+   * 保持しているインデックスを解放する。以降、このカーソル及び同じ検索の他のカーソルは使用できない。
+   * 最後のページを取得した場合は既に解放されている。複数回呼び出してもよい
+   */
+  @Override
+  public void close() {
+    pinned.close();
+  }
+  
+  @Override
+  public String toString() {
+    return "position:" + position + ",doc:" + after.doc;
+  }
+}
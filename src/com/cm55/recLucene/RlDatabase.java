@@ -3,8 +3,14 @@ package com.cm55.recLucene;
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
 
+import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
 import org.apache.lucene.store.*;
 
 /**
@@ -14,9 +20,9 @@ import org.apache.lucene.store.*;
  * </p>
  * <p>
  * 特にディレクトリデータベースの場合、同じディレクトリを指定して複数の{@link RlDatabase}を作成することが
- * 可能だが、これは意味が無い。なぜなら、ある一つのデータベースに対する{@link RlWriter}はただ一つしか
- * 存在できないからである。以前に取得した{@link RlWriter}をclose()しない限り、別の{@link RlWriter}
- * を作成することはできない。
+ * 可能だが、これは意味が無い。なぜなら、ある一つのデータベースに対する{@link RlWriter}は
+ * {@link #setMaxWriters(int)}で指定した数（初期値は一つ）までしか存在できないからである。
+ * 以前に取得した{@link RlWriter}をclose()しない限り、それを超えて{@link RlWriter}を作成することはできない。
  * </p>
  * 
  * @author ysugimura
@@ -29,7 +35,7 @@ public abstract class RlDatabase {
   /** テーブルセット */
   protected RlTableSet tableSet = new RlTableSet();
     
-  /** ライタ取得セマフォ。ライターはただ一つしか取得することはできない */
+  /** ライタ取得セマフォ。初期値ではライターはただ一つしか取得することはできない */
   protected RlSemaphore writeｒSemaphore = new RlSemaphore(1);
 
   /** サーチャー取得セマフォ。最大100個 */
@@ -41,6 +47,12 @@ public abstract class RlDatabase {
   /** インデックスライタホルダー */
   protected RlWriterHolder writerHolder = new RlWriterHolder();
   
+  /** 
+   * インデックスの入れ替えとスナップショットの排他。
+   * スナップショットの取得からコピー、解放までのあいだは、ディレクトリが入れ替えられないようにする
+   */
+  private final ReadWriteLock swapLock = new ReentrantReadWriteLock();
+  
   protected RlDatabase() {  
   }
   
@@ -62,6 +74,7 @@ public abstract class RlDatabase {
   public void close() {
     RlSemaphoreMulti.Holder holder = allSemaphore.acquireAll();
     try {
+      writerHolder.finish();
       writerHolder.close();
       directory.close();
     } catch (IOException ex) {
@@ -98,32 +111,548 @@ public abstract class RlDatabase {
     return this;
   }
   
+  /**
+   * 同時に取得可能な{@link RlWriter}の最大数を設定する。初期値は1。
+   * <p>
+   * 2以上を指定すると、複数のスレッドがそれぞれ自身の{@link RlWriter}を取得し、並列に書き込むことができる。
+   * それらは一つの{@link IndexWriter}を共有するセッションであり、コミットは一度にまとめて行われる。
+   * オープン中のライタがある場合は、すべてがclose()されるまで待つ。
+   * </p>
+   * @param maxWriters ライタの最大数
+   * @return このデータベース
+   */
+  public synchronized RlDatabase setMaxWriters(int maxWriters) {
+    if (maxWriters < 1) {
+      throw new RlException.Usage("ライタの最大数は1以上でなければなりません");
+    }
+    RlSemaphore.Holder holder = writeｒSemaphore.acquireAll();
+    try {
+      writeｒSemaphore.setPermits(holder, maxWriters);
+    } finally {
+      holder.release();
+    }
+    return this;
+  }
+  
+  /**
+   * 同時に取得可能な{@link RlWriter}の最大数を取得する
+   * @return ライタの最大数
+   */
+  public int getMaxWriters() {
+    return writeｒSemaphore.getPermits();
+  }
+  
+  /**
+   * 検索結果のキャッシュサイズを設定する。初期値は0で、キャッシュしない。
+   * <p>
+   * 1以上を指定すると、{@link RlSearcher#search(RlQuery, RlSortFields)}等の結果のドキュメントIDを、
+   * テーブル、クエリ、ソート指定、検索結果最大数ごとに指定数までキャッシュする。
+   * リフレッシュによってインデックスリーダが新しくなると、以前の結果は使用されない。
+   * リフレッシュの間に同じクエリが繰り返される場合に、検索のコストを省くことができる。
+   * ドキュメントの読み込みとオブジェクトへの変換は、キャッシュされた場合でも毎回行われる。
+   * </p>
+   * <p>
+   * クエリはキャッシュのキーになるため、検索に使用した後で{@link RlQuery.Compound#add(RlQuery...)}等によって変更しないこと。
+   * </p>
+   * @param size 最大保持数。0の場合はキャッシュしない
+   */
+  public void setResultCacheSize(int size) {
+    if (size < 0) throw new RlException.Usage("キャッシュサイズは0以上でなければなりません");
+    writerHolder.setResultCache(size == 0? null:new RlResultCache(size));
+  }
+  
+  /**
+   * Luceneのフィルタキャッシュを設定する。
+   * <p>
+   * 設定しない場合は、Lucene全体で共有される既定のキャッシュが使用される。
+   * 設定すると、次のリフレッシュ以降の検索から、このデータベース専用のキャッシュが使用される。
+   * </p>
+   * @param queryCache キャッシュ。nullの場合はLuceneの既定のもの
+   */
+  public void setQueryCache(RlQueryCache queryCache) {
+    writerHolder.setQueryCache(queryCache);
+  }
+  
+  /**
+   * Luceneのフィルタキャッシュを取得する
+   * @return キャッシュ。設定されていない場合はnull
+   */
+  public RlQueryCache getQueryCache() {
+    return writerHolder.getQueryCache();
+  }
+  
+  /** {@link #setSearchExecutor(ExecutorService, int)}のドキュメント数の初期値 */
+  public static final int DEFAULT_PARALLEL_MIN_DOCS = 100000;
+  
+  /**
+   * セグメントを並列に検索するためのスレッドプールを設定する。
+   * ドキュメント数が{@link #DEFAULT_PARALLEL_MIN_DOCS}未満の場合は並列に検索しない。
+   * @param executor スレッドプール。nullの場合は並列に検索しない
+   */
+  public void setSearchExecutor(ExecutorService executor) {
+    setSearchExecutor(executor, DEFAULT_PARALLEL_MIN_DOCS);
+  }
+  
+  /**
+   * セグメントを並列に検索するためのスレッドプールを設定する。
+   * <p>
+   * 設定すると、次のリフレッシュ以降の検索では、インデックスが複数のセグメントからなり、そのドキュメント数が
+   * 指定以上であれば、各セグメントが別のスレッドで検索される。小さなインデックスでは、スレッドの切り替えの
+   * コストの方が大きくなるため、一つのスレッドで検索する。
+   * </p>
+   * <p>
+   * 並列になるのは、{@link RlSearcher#search(RlQuery, RlSortFields)}、{@link RlSearcher#searchPage}、
+   * {@link RlSearcher#count(RlQuery)}等の、Luceneが上位の結果を集める検索である。
+   * スレッドプールはデータベースのクローズ時にもシャットダウンされないため、呼び出し側で管理すること。
+   * </p>
+   * @param executor スレッドプール。nullの場合は並列に検索しない
+   * @param parallelMinDocs 並列に検索する最小のドキュメント数
+   */
+  public void setSearchExecutor(ExecutorService executor, int parallelMinDocs) {
+    if (parallelMinDocs < 0) throw new RlException.Usage("ドキュメント数は0以上でなければなりません");
+    writerHolder.setSearchExecutor(executor, parallelMinDocs);
+  }
+  
+  /**
+   * セグメントを並列に検索するためのスレッドプールを取得する
+   * @return スレッドプール。設定されていない場合はnull
+   */
+  public ExecutorService getSearchExecutor() {
+    return writerHolder.getSearchExecutor();
+  }
+  
+  /** 
+   * 検索結果のキャッシュを取得する
+   * @return キャッシュ。使用しない場合はnull
+   */
+  public RlResultCache getResultCache() {
+    return writerHolder.getResultCache();
+  }
+  
+  /**
+   * {@link IndexWriter}のチューニング設定を切り替える。データベースのリセットは不要である。
+   * <p>
+   * オープン中のライタがある場合は、すべてがclose()されるまで待つ。
+   * 以前の設定は終了処理が行われ、{@link RlWriterOptions#BULK_LOAD}の場合はここでマージ及びコミットが行われる。
+   * ストアフィールドの圧縮モードが変更される場合は、サーチャもすべてclose()されるまで待つ。
+   * </p>
+   * @param options 新たな設定
+   * @return このデータベース
+   */
+  public synchronized RlDatabase setWriterOptions(RlWriterOptions options) {
+    
+    // ライタのみを止めて切り替える
+    RlSemaphore.Holder writerOnly = writeｒSemaphore.acquireAll();
+    try {
+      if (!writerHolder.needsReopen(options)) {
+        writerHolder.setOptions(options);
+        return this;
+      }
+    } finally {
+      writerOnly.release();
+    }
+    
+    // 作成しなおす必要があるため、サーチャも止めて切り替える
+    RlSemaphoreMulti.Holder holder = allSemaphore.acquireAll();
+    try {
+      writerHolder.setOptions(options);
+    } finally {
+      holder.release();
+    }
+    return this;
+  }
+  
+  /**
+   * 現在の{@link IndexWriter}のチューニング設定を取得する
+   * @return 現在の設定
+   */
+  public RlWriterOptions getWriterOptions() {
+    return writerHolder.getOptions();
+  }
+  
+  /**
+   * これまでのすべての書き込みを直ちにコミットする。
+   * {@link RlCommitPolicy}に関わらず、書き込みの永続化を保証したい場合に呼び出す。
+   */
+  public void flush() {
+    writerHolder.getCommitter().flush();
+  }
+  
+  /**
+   * レコードのソースから、このデータベースを全面的に再構築する。
+   * 詳細は{@link RlRebuild}を参照のこと。チェックポイントの間隔等を指定する場合は{@link RlRebuild}を直接使用する。
+   * @param workDir 作業フォルダ。途中で終了した場合は、同じフォルダと同じ識別子のソースを指定することで再開される。
+   * @param source レコードのソース
+   * @return 再構築後のドキュメント数
+   */
+  public <T> int rebuild(Path workDir, RlRebuild.Source<T> source) {
+    return new RlRebuild(this, workDir).run(source);
+  }
+  
+  /**
+   * このデータベースの内容を、指定されたインデックスの内容で置き換える。
+   * {@link #replace(Consumer)}と同様に、別のディレクトリに取り込んでから入れ替える。
+   * @param indexes 取り込むインデックス
+   * @param key 取り込みと同じコミットで記録するコミットデータのキー
+   * @param value その値
+   * @return 置き換え後のドキュメント数
+   */
+  int replaceAll(Directory[] indexes, String key, String value) {
+    swapIn(side-> {
+      side.getIndexWriter().addIndexes(indexes);
+      side.putCommitData(key, value);
+    });
+    return writerHolder.getIndexWriter().numDocs();
+  }
+  
+  /**
+   * インデックスのコミットデータの値を取得する。まだコミットされていないものも含む
+   * @param key キー
+   * @return 値。無い場合はnull
+   */
+  String getCommitData(String key) {
+    return writerHolder.getCommitData(key);
+  }
+  
+  /**
+   * このデータベースの内容を、新たに作成したもので置き換える。
+   * <p>
+   * 新たなインデックスは別のディレクトリに作成され、builderに与えられるライタによって書き込まれる。
+   * その間も、サーチャは以前のインデックスを検索することができる。書き込みが終了するとコミットされ、
+   * データベースのディレクトリが新たなものに入れ替えられる。以降に作成されたサーチャ、
+   * 及び既存のサーチャの次回の検索からは新たなインデックスが使用される。
+   * 以前のディレクトリは、それを使用中のサーチャがすべて次の検索を行うかclose()された時点で破棄される。
+   * </p>
+   * <p>
+   * 入れ替えをサポートしない場合の{@link #reset()}と異なり、サーチャがclose()されるのを待つことはない。ただし、ライタについては
+   * オープン中のものがすべてclose()されるまで待ち、置き換えが終了するまで新たなライタの作成はブロックされる。
+   * builderが何もしなければ、データベースは空になる。
+   * </p>
+   * @param builder 新たなインデックスの書き込みを行う
+   */
+  public void replace(Consumer<RlWriter> builder) {
+    swapIn(side-> {
+      try (RlWriter writer = new RlWriter(tableSet, side)) {
+        builder.accept(writer);
+      }
+    });
+  }
+  
+  /**
+   * テーブル定義が、インデックス作成時のものから変更されているかを調べる。
+   * <p>
+   * インデックスには、テーブルごとにフィールド定義（型、トークン化の有無、アナライザ等）の署名が記録されている。
+   * これが現在の定義と異なる場合にtrueを返す。その場合、検索結果は正しくない可能性があるため、
+   * {@link #reindex()}あるいは{@link #reindex(Iterable)}によって再インデックスを行うこと。
+   * 署名が記録されていないテーブル（以前のバージョンで作成されたもの、新たに追加されたもの）は、
+   * 現在の定義で作成されたものとみなされる。
+   * </p>
+   * <p>
+   * 署名はそのテーブルを含むインデックスを最初にオープンした時点で記録されるため、署名を記録しない以前のバージョンで
+   * 作成したインデックスに対して、その後最初にオープンするまでに行った定義の変更は検出されない。
+   * その場合は明示的に{@link #reindex()}を行うこと。
+   * </p>
+   * @return true:テーブル定義が変更されている
+   */
+  public boolean isSchemaChanged() {
+    return writerHolder.isSchemaChanged();
+  }
+  
+  /**
+   * テーブル定義が変更されていれば、{@link #reindex()}を行う。
+   * @return 再インデックスの終了を示すFuture。変更されていない場合は、0件で終了済みのもの
+   */
+  public CompletableFuture<Integer> reindexIfSchemaChanged() {
+    if (!isSchemaChanged()) return CompletableFuture.completedFuture(0);
+    return reindex();
+  }
+  
+  /**
+   * ストアされた値から、現在のテーブル定義で再インデックスを行う。
+   * <p>
+   * バックグラウンドで、現在のインデックスの全ドキュメントのストアされた値を読み込み、
+   * {@link #replace(Consumer)}によって新たなインデックスに書き込む。その間も以前のインデックスで検索を行うことができ、
+   * 終了すると新たなインデックスに入れ替えられる。ライタの作成は終了までブロックされる。
+   * </p>
+   * <p>
+   * すべてのテーブルの全フィールドがストアされている（あるいは更新可能フィールドである）必要がある。
+   * そうでない場合には、{@link #reindex(Iterable)}でレコードを与えること。
+   * </p>
+   * <p>
+   * 再インデックスは同時に一つしか行うことができない。実行中に呼び出すと例外になる。
+   * </p>
+   * @return 再インデックスの終了を示すFuture。値は書き込んだドキュメント数
+   * @throws RlException.Usage 再インデックスが実行中
+   */
+  public CompletableFuture<Integer> reindex() {
+    tableSet.getTables().flatMap(t->t.getFields()).forEach(f-> {
+      if (!f.isStore() && !f.isUpdatable()) {
+        throw new RlException.Usage("ストアされていないフィールドがあるため再インデックスできません：" + f.getName());
+      }
+    });
+    return runInBackground(()-> {
+      int[] count = new int[1];
+      replace(writer->count[0] = replayStored(writer));
+      return count[0];
+    });
+  }
+  
+  /**
+   * 与えられたレコードで、現在のテーブル定義による再インデックスを行う。
+   * {@link #reindex()}と同様に、バックグラウンドで新たなインデックスに書き込んでから入れ替える。
+   * @param records 全レコード
+   * @return 再インデックスの終了を示すFuture。値は書き込んだレコード数
+   * @throws RlException.Usage 再インデックスが実行中
+   */
+  public CompletableFuture<Integer> reindex(Iterable<?> records) {
+    return runInBackground(()-> {
+      int[] count = new int[1];
+      replace(writer-> {
+        for (Object rec: records) {
+          writer.write(rec);
+          count[0]++;
+        }
+      });
+      return count[0];
+    });
+  }
+  
+  /** 実行中の再インデックス */
+  private final AtomicBoolean reindexing = new AtomicBoolean();
+  
+  /** 再インデックスをバックグラウンドのスレッドで行う。同時には一つしか実行しない */
+  private CompletableFuture<Integer> runInBackground(Supplier<Integer> task) {
+    if (!reindexing.compareAndSet(false, true)) {
+      throw new RlException.Usage("再インデックスが実行中です");
+    }
+    CompletableFuture<Integer> future = new CompletableFuture<>();
+    Thread thread = new Thread(()-> {
+      // 完了を通知する前に、次の再インデックスを可能にしておく
+      Integer count;
+      try {
+        count = task.get();
+      } catch (Throwable th) {
+        reindexing.set(false);
+        future.completeExceptionally(th);
+        return;
+      }
+      reindexing.set(false);
+      future.complete(count);
+    }, "RlReindex");
+    thread.setDaemon(true);
+    thread.start();
+    return future;
+  }
+  
+  /** 
+   * 現在のインデックスの全ドキュメントを、ストアされた値からレコードに変換して書き込む 
+   * @return 書き込んだドキュメント数
+   */
+  private int replayStored(RlWriter writer) {
+    SearcherManager manager = writerHolder.acquireManager();
+    try {
+      manager.maybeRefreshBlocking();
+      IndexSearcher searcher = manager.acquire();
+      try {
+        int count = 0;
+        for (LeafReaderContext leaf: searcher.getIndexReader().leaves()) {
+          LeafReader reader = leaf.reader();
+          org.apache.lucene.util.Bits liveDocs = reader.getLiveDocs();
+          for (int docId = 0; docId < reader.maxDoc(); docId++) {
+            if (liveDocs != null && !liveDocs.get(docId)) continue;
+            Document doc = reader.document(docId);
+            RlTable<?> table = null;
+            for (IndexableField field: doc) {
+              if ((table = tableSet.getTableByFieldName(field.name())) != null) break;
+            }
+            if (table == null) continue;
+            RlSearcher.addDocValues(doc, reader, docId, 
+                table.getFields().filter(f->f.isUpdatable()).toArray(RlField<?>[]::new));
+            Object rec = table.fromDocument(doc);
+            if (table instanceof RlAnyTable) {
+              writer.write((RlAnyTable)table, (RlValues)rec);
+            } else {
+              writer.write(rec);
+            }
+            count++;
+          }
+        }
+        return count;
+      } finally {
+        manager.release(searcher);
+      }
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    } finally {
+      writerHolder.releaseManager(manager);
+    }
+  }
+  
+  /** 入れ替え用のインデックスの作成処理 */
+  private interface SideBuild {
+    void build(RlWriterHolder side) throws IOException;
+  }
+  
+  /** 入れ替えたインデックスのコミットデータにおける、入れ替え時刻のキー */
+  static final String SWAP_TIME_KEY = "rlSwap.time";
+  
+  /**
+   * 別のディレクトリにインデックスを作成し、コミットしてから入れ替える。
+   * @param build インデックスの作成処理
+   */
+  private void swapIn(SideBuild build) {
+    swapIn(writeｒSemaphore.acquireAll(), build);
+  }
+  
+  /**
+   * 別のディレクトリにインデックスを作成し、コミットしてから入れ替える。
+   * @param writers ライタセマフォのすべて。終了時に解放される
+   * @param build インデックスの作成処理
+   */
+  private void swapIn(RlSemaphore.Holder writers, SideBuild build) {
+    try {
+      Directory sideDirectory = createSideDirectory();
+      RlWriterHolder side = new RlWriterHolder();
+      side.reset(sideDirectory, tableSet);
+      side.setOptions(writerHolder.getOptions());
+      side.setQueryCache(writerHolder.getQueryCache());
+      side.setSearchExecutor(writerHolder.getSearchExecutor(), writerHolder.getParallelMinDocs());
+      try {
+        build.build(side);
+        side.putCommitData(SWAP_TIME_KEY, Long.toString(System.currentTimeMillis()));
+        side.getCommitter().flush();
+      } catch (IOException | RuntimeException ex) {
+        side.close();
+        disposeDirectory(sideDirectory);
+        if (ex instanceof IOException) throw new RlException.IO((IOException)ex);
+        throw (RuntimeException)ex;
+      }
+      swapLock.writeLock().lock();
+      try {
+        synchronized (this) {
+          writerHolder.swap(side, this::disposeDirectory);
+          directory = sideDirectory;
+        }
+      } finally {
+        swapLock.writeLock().unlock();
+      }
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    } finally {
+      writers.release();
+    }
+  }
+  
+  /**
+   * {@link #replace(Consumer)}のための新たな空のディレクトリを作成する
+   * @return 新たなディレクトリ
+   * @throws IOException
+   */
+  protected Directory createSideDirectory() throws IOException {
+    throw new RlException.Usage(getClass().getName() + "はインデックスの入れ替えをサポートしていません");
+  }
+  
+  /**
+   * {@link #createSideDirectory()}による入れ替えをサポートしているか。
+   * サポートしている場合、{@link #reset()}も入れ替えによって行われる。
+   * @return true:サポートしている
+   */
+  protected boolean supportsSwap() {
+    return false;
+  }
+  
+  /**
+   * 入れ替えによって使用されなくなったディレクトリを破棄する
+   * @param old 以前のディレクトリ
+   */
+  protected void disposeDirectory(Directory old) {
+    try {
+      old.close();
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    }
+  }
+  
+  /**
+   * これまでの書き込みをコミットし、インデックスのスナップショットを指定フォルダにコピーする。
+   * <p>
+   * ドキュメントを書き込みなおすのではなく、インデックスファイルをそのままコピーするため、
+   * 所要時間はディスクの帯域のみに依存する。コピー中も書き込み・検索を行うことができる。
+   * 作成したスナップショットは{@link Ram#restoreFrom(Path)}で読み込むことができる。
+   * </p>
+   * @param path コピー先フォルダ。存在しなければ作成される。空でなければならない。
+   */
+  public void snapshotTo(Path path) {
+    // リセット・クローズされないようにする
+    RlSemaphore.Holder holder = searcherSemaphore.acquire();
+    
+    // スナップショットの取得から解放までは、同じディレクトリ、同じライタホルダの状態でなければならない
+    swapLock.readLock().lock();
+    try {
+      IndexCommit commit = writerHolder.snapshot();
+      try {
+        RlSnapshot.copy(directory, commit, path);
+      } finally {
+        writerHolder.releaseSnapshot(commit);
+      }
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    } finally {
+      swapLock.readLock().unlock();
+      holder.release();
+    }
+  }
+  
   /**
    * このデータベースに対するライタを作成して返す。
-   * ライタはただ一つしか存在できず、既にオープン中のライタがある場合は、close()されるまで待つ。
+   * 既に{@link #setMaxWriters(int)}で指定した数のライタがオープン中の場合は、いずれかがclose()されるまで待つ。
    * @return 新たなライタ
    */
   public RlWriter createWriter() {
     RlSemaphore.Holder holder = writeｒSemaphore.acquire();
-    return new RlWriter(tableSet, writerHolder.getIndexWriter(), holder); 
+    return new RlWriter(tableSet, writerHolder, holder); 
   }
 
   /**
    * このデータベースに対するライタを作成して返す。
-   * ライタはただ一つしか存在できず、既にオープン中のライタがある場合は何もせずにnullを返す。
+   * 既に{@link #setMaxWriters(int)}で指定した数のライタがオープン中の場合は何もせずにnullを返す。
    * @return
    */
   public RlWriter tryCreateWriter() {
     RlSemaphore.Holder holder = writeｒSemaphore.tryAcquire();
     if (holder == null) return null;
-    return new RlWriter(tableSet, writerHolder.getIndexWriter(), holder); 
+    return new RlWriter(tableSet, writerHolder, holder); 
+  }
+  
+  /**
+   * このデータベースに対する非同期ライタを作成して返す。
+   * スレッド数はCPUコア数、キューサイズは100バッチ、キューが満杯の場合はブロックする。
+   * 内部でライタを取得するため、既にオープン中のライタがある場合は、close()されるまで待つ。
+   * @return 新たな非同期ライタ
+   */
+  public RlAsyncWriter createAsyncWriter() {
+    return createAsyncWriter(Runtime.getRuntime().availableProcessors(), 100, RlAsyncWriter.WhenFull.BLOCK);
+  }
+
+  /**
+   * このデータベースに対する非同期ライタを作成して返す。
+   * 内部でライタを取得するため、既にオープン中のライタがある場合は、close()されるまで待つ。
+   * @param threads 書き込みを行うバックグラウンドスレッド数
+   * @param queueSize キューに格納可能なバッチ数
+   * @param whenFull キューが満杯の場合の動作
+   * @return 新たな非同期ライタ
+   */
+  public RlAsyncWriter createAsyncWriter(int threads, int queueSize, RlAsyncWriter.WhenFull whenFull) {
+    // ライタを取得してしまうと、例外の場合にセマフォが解放されないため先にチェックする
+    RlAsyncWriter.checkArguments(threads, queueSize);
+    return new RlAsyncWriter(createWriter(), threads, queueSize, whenFull);
   }
   
   /**
    * 指定したクラスオブジェクトのテーブルに対するサーチャを取得する。
    * <p>
-   * ここで取得されるサーチャはライタの書き込みに追随しない。 たとえ、それがcommitやcloseされても反映されない。
-   * 反映するには、新たなサーチャを作成する必要がある。
+   * サーチャは検索のたびに最新のインデックスを取得し、複数のスレッドから同時に使用することができる。
+   * サーチャ用のセマフォを一つ取得するため、テーブルごとに一つ作成して共有すればよい。
    * </p>
    * @param recordClass レコードクラス
    * @return サーチャ
@@ -136,10 +665,9 @@ public abstract class RlDatabase {
   }
 
   /**
-   * 指定したテーブルに対するサーチャを取得する。サーチ結果はレコードオブジェクトとして返されるため、
+   * 指定したテーブルに対するサーチャを取得する。サーチ結果はレコードオブジェクトとして返される。
    * <p>
-   * ここで取得されるサーチャはライタの書き込みに追随しない。 たとえ、それがcommitやcloseされても反映されない。
-   * 反映するには、新たなサーチャをリオープンする必要がある。
+   * サーチャは検索のたびに最新のインデックスを取得し、複数のスレッドから同時に使用することができる。
    * </p>
    * 
    * @param table テーブル
@@ -147,28 +675,46 @@ public abstract class RlDatabase {
    */
   public synchronized <T>RlSearcher<T> createSearcher(RlTable<T>table) {
     RlSemaphore.Holder holder = searcherSemaphore.acquire();
-    return new RlSearcher<T>(table, writerHolder.getSearcherManager(), holder);
+    return new RlSearcher<T>(table, writerHolder, holder);
   }
 
   /** 
    * このデータベースをリセットする。いったんすべてのデータを削除する。 
-   * ライター・サーチャーのすべてのセマフォが取得できるまで待つ。
+   * <p>
+   * 入れ替えをサポートしている場合は、空のインデックスへの{@link #replace(Consumer)}として行われ、
+   * ライタのセマフォのみを取得する。サーチャは待たされることなく、次の検索から空のインデックスを使用する。
+   * そうでない場合は、ライター・サーチャーのすべてのセマフォが取得できるまで待つ。
+   * </p>
    */  
-  public synchronized void reset() {
-    RlSemaphoreMulti.Holder holder = allSemaphore.acquireAll();
-    doingReset(holder);
+  public void reset() {
+    if (supportsSwap()) {
+      swapIn(side->{});
+      return;
+    }
+    synchronized (this) {
+      RlSemaphoreMulti.Holder holder = allSemaphore.acquireAll();
+      doingReset(holder);
+    }
   }
 
   /**
    * このデータベースをリセットする。いったんすべてのデータを削除する。
-   * ライター・サーチャーのすべてのセマフォが取得できない場合はfalseを返す。
+   * 必要なセマフォ（{@link #reset()}を参照）が取得できない場合はfalseを返す。
    * @return
    */
-  public synchronized boolean tryReset() {
-    RlSemaphoreMulti.Holder holder = allSemaphore.tryAcquireAll();
-    if (holder == null) return false;
-    doingReset(holder);
-    return true;
+  public boolean tryReset() {
+    if (supportsSwap()) {
+      RlSemaphore.Holder writers = writeｒSemaphore.tryAcquireAll();
+      if (writers == null) return false;
+      swapIn(writers, side->{});
+      return true;
+    }
+    synchronized (this) {
+      RlSemaphoreMulti.Holder holder = allSemaphore.tryAcquireAll();
+      if (holder == null) return false;
+      doingReset(holder);
+      return true;
+    }
   }
 
   /** 
@@ -209,17 +755,66 @@ public abstract class RlDatabase {
     public Ram() {
       setDirectory(new RAMDirectory());
     }
+    
+    private Ram(RAMDirectory directory) {
+      setDirectory(directory);
+    }
+
+    /**
+     * {@link RlDatabase#snapshotTo(Path)}で作成したスナップショットを読み込んだRAMデータベースを作成する。
+     * テーブルの追加は、通常通り{@link #add(Class...)}等で行うこと。
+     * @param path スナップショットのフォルダ
+     * @return RAMデータベース
+     */
+    public static Ram restoreFrom(Path path) {
+      return restoreFrom(path, false);
+    }
+
+    /**
+     * {@link RlDatabase#snapshotTo(Path)}で作成したスナップショットを読み込んだRAMデータベースを作成する。
+     * <p>
+     * インデックスファイルはドキュメント単位ではなく、ファイル単位で一括して読み込まれる。
+     * mmapをtrueにすると、ファイルをメモリマップして読み込むため、OSのページキャッシュに載っている場合には
+     * 読み込みバッファへのコピーが省かれる。
+     * </p>
+     * @param path スナップショットのフォルダ
+     * @param mmap true:メモリマップによって読み込む、false:NIOによって読み込む
+     * @return RAMデータベース
+     */
+    public static Ram restoreFrom(Path path, boolean mmap) {
+      try (FSDirectory source = mmap? new MMapDirectory(path):new NIOFSDirectory(path)) {
+        return new Ram(new RAMDirectory(source, IOContext.READONCE));
+      } catch (IOException ex) {
+        throw new RlException.IO(ex);
+      }
+    }
 
     protected void doReset() {
       setDirectory(new RAMDirectory());
     }
+    
+    @Override
+    protected Directory createSideDirectory() {
+      return new RAMDirectory();
+    }
+    
+    @Override
+    protected boolean supportsSwap() {
+      return true;
+    }
   }
 
   /**
    * 物理ディレクトリ用のデータベース
+   * <p>
+   * {@link #replace(Consumer)}による入れ替えを行うと、指定フォルダと同じ階層にある「フォルダ名.swap」
+   * というフォルダとのあいだでインデックスが交互に作成される。オープン時には、それらのうち最後に入れ替えられた
+   * インデックスを持つものが使用される。
+   * </p>
    */
   public static class Dir extends RlDatabase {
 
+    /** 指定されたフォルダ */
     private Path path;
 
     /**
@@ -233,7 +828,7 @@ public abstract class RlDatabase {
     public Dir(String dirName) {
       path = FileSystems.getDefault().getPath(dirName);
       try {
-        setDirectory(FSDirectory.open(path));
+        setDirectory(FSDirectory.open(selectLivePath()));
       } catch (IOException ex) {
         throw new RlException.IO(ex);
       }
@@ -243,16 +838,68 @@ public abstract class RlDatabase {
     public Dir(File folder) {
       try {
         path = folder.toPath();
-        setDirectory(FSDirectory.open(path));
+        setDirectory(FSDirectory.open(selectLivePath()));
       } catch (IOException ex) {
         throw new RlException.IO(ex);
       }
     }
 
+    /** 入れ替え用のフォルダを取得する */
+    private Path getSwapPath() {
+      return path.resolveSibling(path.getFileName() + ".swap");
+    }
+    
+    /** 現在使用中のフォルダを取得する */
+    private Path getLivePath() {
+      return ((FSDirectory)FilterDirectory.unwrap(directory)).getDirectory();
+    }
+    
+    /** 
+     * 指定フォルダと入れ替え用のフォルダのうち、使用すべきものを選択する。
+     * 両方にインデックスがある場合は、入れ替え時刻の新しいものを選択する。
+     */
+    private Path selectLivePath() throws IOException {
+      Path swapPath = getSwapPath();
+      if (!Files.isDirectory(swapPath)) return path;
+      long pathTime = getSwapTime(path), swapTime = getSwapTime(swapPath);
+      return swapTime > pathTime? swapPath:path;
+    }
+    
+    /** フォルダのインデックスの入れ替え時刻を取得する。インデックスが無い場合は-1 */
+    private static long getSwapTime(Path folder) throws IOException {
+      if (!Files.isDirectory(folder)) return -1;
+      try (Directory dir = FSDirectory.open(folder)) {
+        if (!DirectoryReader.indexExists(dir)) return -1;
+        String time = SegmentInfos.readLatestCommit(dir).getUserData().get(SWAP_TIME_KEY);
+        return time == null? 0:Long.parseLong(time);
+      }
+    }
+    
+    @Override
+    protected Directory createSideDirectory() throws IOException {
+      // 指定フォルダは相対パスの場合もあるため、同一のファイルであるかで比較する
+      Path sidePath = Files.exists(path) && Files.isSameFile(getLivePath(), path)? getSwapPath():path;
+      delete(sidePath.toFile());
+      return FSDirectory.open(sidePath);
+    }
+    
+    @Override
+    protected boolean supportsSwap() {
+      return true;
+    }
+    
+    @Override
+    protected void disposeDirectory(Directory old) {
+      Path oldPath = ((FSDirectory)FilterDirectory.unwrap(old)).getDirectory();
+      super.disposeDirectory(old);
+      delete(oldPath.toFile());
+    }
+    
     protected void doReset() {
 
       // luceneデータベースフォルダを削除する
-      File dir = path.toFile();
+      Path livePath = getLivePath();
+      File dir = livePath.toFile();
       delete(dir);
       if (dir.exists()) {
         System.err.println("!!! DIRECTORY LEFT !!!!");
@@ -263,7 +910,7 @@ public abstract class RlDatabase {
       } catch (Exception ex) {        
       }
       try {
-        setDirectory(FSDirectory.open(path));
+        setDirectory(FSDirectory.open(livePath));
       } catch (IOException ex) {
         throw new RlException.IO(ex);
       }
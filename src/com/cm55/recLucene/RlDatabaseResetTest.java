@@ -2,7 +2,11 @@ package com.cm55.recLucene;
 
 import static org.junit.Assert.*;
 
+import java.io.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 
 import org.junit.*;
 
@@ -49,7 +53,148 @@ public class RlDatabaseResetTest {
   }
   
 
+  @Test
+  public void 入れ替えRam() {
+    RlDatabase database = new RlDatabase.Ram().add(Keyed.class);
+    try (RlWriter writer = database.createWriter()) {
+      writer.write(new Keyed("old"));
+    }
+    RlSearcher<Keyed> holding = database.createSearcher(Keyed.class);
+    assertEquals(1, holding.getAllByPk().size());
+    
+    database.replace(writer-> {
+      writer.write(new Keyed("new1"));
+      writer.write(new Keyed("new2"));
+      
+      // 作成中も以前の内容を検索できる
+      try (RlSearcher<Keyed> searcher = database.createSearcher(Keyed.class)) {
+        assertEquals(1, searcher.search(new RlQuery.Match("key", "old")).size());
+      }
+    });
+    
+    // 以前のインデックスを使用していたサーチャも、次の検索からは新たなものを使用する
+    assertEquals(2, holding.getAllByPk().size());
+    holding.close();
+    try (RlSearcher<Keyed> searcher = database.createSearcher(Keyed.class)) {
+      assertEquals(0, searcher.search(new RlQuery.Match("key", "old")).size());
+    }
+    
+    // 空にする
+    database.replace(writer->{});
+    try (RlSearcher<Keyed> searcher = database.createSearcher(Keyed.class)) {
+      assertEquals(0, searcher.getAllByPk().size());
+    }
+    database.close();
+  }
+  
+  @Test
+  public void サーチャを待たないリセット() {
+    RlDatabase database = new RlDatabase.Ram().add(Keyed.class);
+    try (RlWriter writer = database.createWriter()) {
+      writer.write(new Keyed("old"));
+    }
+    
+    // オープン中のサーチャがあってもリセットでき、その次の検索からは空になる
+    try (RlSearcher<Keyed> holding = database.createSearcher(Keyed.class)) {
+      assertEquals(1, holding.getAllByPk().size());
+      assertTrue(database.tryReset());
+      assertEquals(0, holding.getAllByPk().size());
+      
+      // オープン中のライタがある場合は、tryResetは失敗する
+      try (RlWriter writer = database.createWriter()) {
+        writer.write(new Keyed("new"));
+        assertFalse(database.tryReset());
+      }
+      assertEquals(1, holding.getAllByPk().size());
+    }
+    database.close();
+  }
+  
+  @Test
+  public void 入れ替え中の検索() throws Exception {
+    RlDatabase database = new RlDatabase.Ram().add(Keyed.class);
+    try (RlWriter writer = database.createWriter()) {
+      writer.write(new Keyed("0"));
+    }
+    
+    // 検索ごとにリフレッシュを行うサーチャが、入れ替えと並行して検索しても失敗しない
+    AtomicBoolean running = new AtomicBoolean(true);
+    List<Throwable> errors = new CopyOnWriteArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (RlSearcher<Keyed> searcher = database.createSearcher(Keyed.class)) {
+      for (int t = 0; t < 4; t++) {
+        executor.execute(()-> {
+          try {
+            while (running.get()) {
+              assertEquals(1, searcher.count(new RlQuery.Match("key", "0")));
+              assertEquals(1, searcher.getAllByPk().size());
+            }
+          } catch (Throwable th) {
+            errors.add(th);
+          }
+        });
+      }
+      try {
+        for (int i = 0; i < 200 && errors.isEmpty(); i++) {
+          database.replace(writer->writer.write(new Keyed("0")));
+        }
+      } finally {
+        running.set(false);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+      }
+    }
+    assertEquals(Collections.emptyList(), errors);
+    database.close();
+  }
+  
+  @Test
+  public void 入れ替えDir() throws IOException {
+    Path parent = Files.createTempDirectory("rlReplace");
+    File folder = parent.resolve("db").toFile();
+    try {
+      RlDatabase database = new RlDatabase.Dir(folder).add(Keyed.class);
+      try (RlWriter writer = database.createWriter()) {
+        writer.write(new Keyed("old"));
+      }
+      database.replace(writer->writer.write(new Keyed("new1")));
+      assertTrue(Files.exists(parent.resolve("db.swap")));
+      assertFalse(Files.exists(parent.resolve("db")));
+      database.close();
+      
+      // 再度オープンすると、入れ替え後のものが使用される
+      database = new RlDatabase.Dir(folder).add(Keyed.class);
+      try (RlSearcher<Keyed> searcher = database.createSearcher(Keyed.class)) {
+        assertEquals(1, searcher.search(new RlQuery.Match("key", "new1")).size());
+      }
+      database.replace(writer->writer.write(new Keyed("new2")));
+      assertFalse(Files.exists(parent.resolve("db.swap")));
+      database.close();
+
+      database = new RlDatabase.Dir(folder).add(Keyed.class);
+      try (RlSearcher<Keyed> searcher = database.createSearcher(Keyed.class)) {
+        assertEquals(1, searcher.getAllByPk().size());
+        assertEquals(1, searcher.search(new RlQuery.Match("key", "new2")).size());
+      }
+      database.close();
+    } finally {
+      try (java.util.stream.Stream<Path> paths = Files.walk(parent)) {
+        paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+      }
+    }
+  }
+
   public static class Sample {
     String test = "abc";
   }
+  
+  public static class Keyed {
+    @RlFieldAttr(pk=true)
+    public String key;
+    
+    public Keyed() {}
+    public Keyed(String key) {
+      this.key = key;
+    }
+  }
 }
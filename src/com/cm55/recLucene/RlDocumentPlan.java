@@ -0,0 +1,201 @@
+package com.cm55.recLucene;
+
+import java.io.*;
+import java.util.*;
+
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+
+/**
+ * テーブルごとに事前に作成される、Luceneの{@link Document}作成手順
+ * <p>
+ * 書き込みのたびに中間的な{@link RlValues}やストリームを作成することなく、レコードオブジェクトから直接
+ * Luceneの{@link Field}に値を設定する。
+ * {@link #getReusableDocument(Object, ValueGetter)}はスレッドごとに{@link Document}と{@link Field}を
+ * 再利用するため、大量の書き込みを行う際のガベージを削減することができる。
+ * </p>
+ * <p>
+ * フィンガープリントフィールドが指定された場合には、更新可能フィールド以外の全フィールド値のハッシュ値を
+ * DocValuesとしてドキュメントに追加する。これにより、既存のドキュメントと内容が同一であるかを、
+ * ストアされた値を読み込むことなく判定することができる。
+ * </p>
+ * @author ysugimura
+ */
+class RlDocumentPlan {
+
+  /** レコードから、あるフィールドの値を取得する */
+  interface ValueGetter<R> {
+    Object get(RlField<?> field, R source);
+  }
+  
+  /** 対象とする全フィールド */
+  private final RlField<?>[] fields;
+  
+  /** 更新可能フィールド。フィンガープリントには含めず、個別に比較する */
+  private final RlField<?>[] updatableFields;
+  
+  /** フィンガープリントフィールドの名称。フィンガープリントを使用しない場合はnull */
+  private final String fingerprintField;
+  
+  /** スレッドごとの再利用オブジェクト */
+  private final ThreadLocal<Reusable> reusables;
+  
+  /**
+   * 対象とするフィールドを指定する
+   * @param fields 全フィールド
+   */
+  RlDocumentPlan(RlField<?>[] fields) {
+    this(fields, null);
+  }
+  
+  /**
+   * 対象とするフィールドとフィンガープリントフィールドの名称を指定する
+   * @param fields 全フィールド
+   * @param fingerprintField フィンガープリントフィールドの名称。使用しない場合はnull
+   */
+  RlDocumentPlan(RlField<?>[] fields, String fingerprintField) {
+    this.fields = fields;
+    this.updatableFields = Arrays.stream(fields).filter(f->f.isUpdatable()).toArray(RlField<?>[]::new);
+    this.fingerprintField = fingerprintField;
+    reusables = ThreadLocal.withInitial(()->new Reusable(fields.length));
+  }
+  
+  /** フィンガープリントフィールドの名称を取得する。使用しない場合はnull */
+  String getFingerprintField() {
+    return fingerprintField;
+  }
+  
+  /**
+   * 新たな{@link Document}を作成する
+   * @param source レコード
+   * @param getter 値の取得方法
+   * @return 新たなドキュメント
+   */
+  <R> Document getDocument(R source, ValueGetter<R> getter) {
+    Document doc = new Document();
+    for (RlField<?> field: fields) {
+      Object value = getter.get(field, source);
+      if (value == null) continue; // 値がnullの場合は登録しない。
+      doc.add(field.createLuceneField(value));
+      Field sortField = field.createSortField(value);
+      if (sortField != null) doc.add(sortField);
+    }
+    if (fingerprintField != null) {
+      doc.add(new NumericDocValuesField(fingerprintField, getFingerprint(source, getter)));
+    }
+    return doc;
+  }
+  
+  /**
+   * 呼び出しスレッドの再利用{@link Document}に値を設定して返す。
+   * <p>
+   * 返された{@link Document}は、同じスレッドで次にこのメソッドを呼び出すまでのあいだのみ有効である。
+   * {@link org.apache.lucene.index.IndexWriter}に書き込んだ後は保持しないこと。
+   * </p>
+   * @param source レコード
+   * @param getter 値の取得方法
+   * @return 再利用ドキュメント
+   */
+  <R> Document getReusableDocument(R source, ValueGetter<R> getter) {
+    Reusable reusable = reusables.get();
+    Document doc = reusable.doc;
+    doc.clear();
+    for (int i = 0; i < fields.length; i++) {
+      RlField<?> field = fields[i];
+      Object value = getter.get(field, source);
+      if (value == null) continue; // 値がnullの場合は登録しない。
+      Field luceneField = reusable.fields[i];
+      if (luceneField == null) {
+        reusable.fields[i] = luceneField = field.createLuceneField(value);
+      } else {
+        field.setLuceneFieldValue(luceneField, value);
+      }
+      doc.add(luceneField);
+      if (!field.isSortable() || field.isUpdatable()) continue;
+      Field sortField = reusable.sortFields[i];
+      if (sortField == null) {
+        reusable.sortFields[i] = sortField = field.createSortField(value);
+      } else {
+        field.setSortFieldValue(sortField, value);
+      }
+      doc.add(sortField);
+    }
+    if (fingerprintField != null) {
+      if (reusable.fingerprint == null) {
+        reusable.fingerprint = new NumericDocValuesField(fingerprintField, 0);
+      }
+      reusable.fingerprint.setLongValue(getFingerprint(source, getter));
+      doc.add(reusable.fingerprint);
+    }
+    return doc;
+  }
+  
+  /**
+   * レコードのフィンガープリントを計算する。
+   * 更新可能フィールド以外の全フィールドの、Lucene格納用文字列の64ビットFNV-1aハッシュ値である。
+   * @param source レコード
+   * @param getter 値の取得方法
+   * @return フィンガープリント
+   */
+  @SuppressWarnings("unchecked")
+  <R> long getFingerprint(R source, ValueGetter<R> getter) {
+    long hash = FNV_OFFSET;
+    for (RlField<?> field: fields) {
+      if (field.isUpdatable()) continue;
+      Object value = getter.get(field, source);
+      if (value == null) {
+        // nullと空文字列を区別する
+        hash = (hash ^ -1) * FNV_PRIME;
+        continue;
+      }
+      String string = ((RlField<Object>)field).toString(value);
+      hash = (hash ^ string.length()) * FNV_PRIME;
+      for (int i = 0; i < string.length(); i++) {
+        hash = (hash ^ string.charAt(i)) * FNV_PRIME;
+      }
+    }
+    return hash;
+  }
+  
+  /**
+   * レコードの内容が、インデックス中のドキュメントと同一であるかを判定する。
+   * フィンガープリントと、更新可能フィールドの値を比較する。
+   * @param source レコード
+   * @param getter 値の取得方法
+   * @param reader ドキュメントを含むリーダ
+   * @param docId リーダ中のドキュメントID
+   * @return true:同一である。false:異なるか、フィンガープリントが格納されていない
+   * @throws IOException
+   */
+  <R> boolean isUnchanged(R source, ValueGetter<R> getter, LeafReader reader, int docId) throws IOException {
+    NumericDocValues stored = reader.getNumericDocValues(fingerprintField);
+    if (stored == null || !stored.advanceExact(docId)) return false;
+    if (stored.longValue() != getFingerprint(source, getter)) return false;
+    for (RlField<?> field: updatableFields) {
+      Object value = getter.get(field, source);
+      NumericDocValues values = reader.getNumericDocValues(field.getName());
+      boolean exists = values != null && values.advanceExact(docId);
+      if (value == null) {
+        if (exists) return false;
+        continue;
+      }
+      if (!exists || values.longValue() != field.toLong(value)) return false;
+    }
+    return true;
+  }
+  
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+  
+  /** スレッドごとの再利用オブジェクト */
+  private static class Reusable {
+    final Document doc = new Document();
+    final Field[] fields;
+    final Field[] sortFields;
+    NumericDocValuesField fingerprint;
+    Reusable(int size) {
+      fields = new Field[size];
+      sortFields = new Field[size];
+    }
+  }
+}
@@ -37,4 +37,13 @@ public class RlException extends RuntimeException {
       super(ex);
     }
   }
+  
+  public static class Rejected extends RlException {
+    public Rejected(String message) {
+      super(message);
+    }
+    public Rejected(Throwable ex) {
+      super(ex);
+    }
+  }
 }
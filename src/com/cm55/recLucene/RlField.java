@@ -1,6 +1,11 @@
 package com.cm55.recLucene;
 
+import java.text.*;
+import java.util.*;
+
 import org.apache.lucene.document.*;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.*;
 
 /**
  * フィールド定義
@@ -38,6 +43,25 @@ public class RlField<T> {
    */
   private boolean tokenized;
 
+  /**
+   * DocValuesとして格納し、{@link RlWriter#updateValue(Object, RlField, long)}によって
+   * ドキュメント全体を書き込みなおすことなく値を更新可能にする。
+   * tokenized=falseの数値フィールドでなければならない。
+   */
+  private boolean updatable;
+
+  /**
+   * インデックスに加えてDocValuesを格納し、ソート可能にする。
+   * tokenized=falseでなければならない。
+   */
+  private boolean sortable;
+  
+  /** ソート時の照合順序のロケール。文字コード順の場合はnull */
+  private Locale collation;
+  
+  /** スレッドごとの照合順序。{@link Collator}はスレッドセーフではない */
+  private ThreadLocal<Collator> collators;
+
   /** 
    * フィールドコンバータ 。typeがString以外の場合に、type/Stringの相互変換を行う。
    * LuceneデータベースにはStringしか格納しないため、他のtypeの場合にはStringとの相互変換が必要
@@ -104,6 +128,32 @@ public class RlField<T> {
     return tokenized;
   }
 
+  /**
+   * 更新可能なフィールドであるか
+   * 
+   * @return true:値がDocValuesとして格納され、{@link RlWriter#updateValue(Object, RlField, long)}によって更新できる。
+   */
+  public boolean isUpdatable() {
+    return updatable;
+  }
+
+  /**
+   * ソート可能なフィールドであるか
+   * 
+   * @return true:{@link RlSortFields}でソートできる。更新可能フィールドは常にソート可能である。
+   */
+  public boolean isSortable() {
+    return sortable || updatable;
+  }
+  
+  /** 
+   * ソート時の照合順序のロケールを取得する
+   * @return ロケール。文字コード順の場合はnull
+   */
+  public Locale getCollation() {
+    return collation;
+  }
+
   /**
    * 値セットの中の、「この」フィールド値をLucene用のフィールドオブジェクトにして返す。 値がnullだった場合にはnullを返す。
    * 
@@ -112,8 +162,23 @@ public class RlField<T> {
    * @return Luecene用フィールド
    */  
   public Field getLuceneField(RlValues object) {
-    String value = getStringValue(object);
+    Object value = object.get(name);
     if (value == null) return null;
+    return createLuceneField(value);
+  }
+  
+  /**
+   * フィールド値からLucene用のフィールドオブジェクトを作成する
+   * @param object フィールド値。nullであってはならない
+   * @return Lucene用フィールド
+   */
+  @SuppressWarnings("unchecked")
+  Field createLuceneField(Object object) {
+    if (updatable) {
+      // 更新可能な場合、NumericDocValuesFieldを使用する
+      return new NumericDocValuesField(name, toLong(object));
+    }
+    String value = toString((T)object);
     if (!tokenized) {
       // トークン化されない場合、StringFieldを使用する
       return new StringField(name, value, store ? Field.Store.YES : Field.Store.NO);
@@ -123,6 +188,112 @@ public class RlField<T> {
     }
   }
 
+  /**
+   * {@link #createLuceneField(Object)}で作成したフィールドオブジェクトに、別の値を設定する
+   * @param luceneField Lucene用フィールド
+   * @param object フィールド値。nullであってはならない
+   */
+  @SuppressWarnings("unchecked")
+  void setLuceneFieldValue(Field luceneField, Object object) {
+    if (updatable) {
+      luceneField.setLongValue(toLong(object));
+    } else {
+      luceneField.setStringValue(toString((T)object));
+    }
+  }
+  
+  /**
+   * ソート用のDocValuesフィールドを作成する。
+   * 更新可能フィールドは値自体がDocValuesとして格納されるため、作成しない。
+   * @param object フィールド値。nullであってはならない
+   * @return DocValuesフィールド。ソート可能でないか、更新可能フィールドの場合はnull
+   */
+  Field createSortField(Object object) {
+    if (!sortable || updatable) return null;
+    if (isIntegral()) return new NumericDocValuesField(name, toLong(object));
+    return new SortedDocValuesField(name, toSortBytes(object));
+  }
+  
+  /**
+   * {@link #createSortField(Object)}で作成したフィールドオブジェクトに、別の値を設定する
+   * @param sortField ソート用のDocValuesフィールド
+   * @param object フィールド値。nullであってはならない
+   */
+  void setSortFieldValue(Field sortField, Object object) {
+    if (isIntegral()) {
+      sortField.setLongValue(toLong(object));
+    } else {
+      sortField.setBytesValue(toSortBytes(object));
+    }
+  }
+  
+  /** 文字列としてソートする場合の値。照合順序が指定されていれば照合キーとする */
+  @SuppressWarnings("unchecked")
+  private BytesRef toSortBytes(Object object) {
+    String string = toString((T)object);
+    if (collators == null) return new BytesRef(string);
+    return new BytesRef(collators.get().getCollationKey(string).toByteArray());
+  }
+  
+  /** 
+   * 値が数値のDocValuesとしても格納されているか。
+   * 更新可能フィールドと、整数型のソート可能フィールドが該当する。
+   */
+  boolean hasNumericDocValues() {
+    return updatable || sortable && isIntegral();
+  }
+  
+  /** 型がlong,int,short,byteのいずれか（あるいはその参照型）であるか */
+  private boolean isIntegral() {
+    Class<?> refType = Misc.getReferenceClass(type);
+    return refType == Long.class || refType == Integer.class || refType == Short.class || refType == Byte.class;
+  }
+  
+  /**
+   * このフィールドのLuceneのソート指定を取得する
+   * @param desc 降順の場合true
+   * @return Luceneのソート指定
+   */
+  SortField getSortField(boolean desc) {
+    if (!isSortable()) {
+      throw new RlException.Usage("ソート可能なフィールドではありません：" + name);
+    }
+    if (updatable || isIntegral()) return new SortField(name, SortField.Type.LONG, desc);
+    return new SortField(name, SortField.Type.STRING, desc);
+  }
+  
+  /** 更新可能フィールドの値をDocValues用のlong値に変換する */
+  long toLong(Object value) {
+    return ((Number)value).longValue();
+  }
+  
+  /**
+   * long値がこのフィールドの型で表現できることを確認する
+   * @param value 値
+   * @throws RlException.Usage 型の範囲外の場合
+   */
+  void checkLongRange(long value) {
+    Class<?> refType = Misc.getReferenceClass(type);
+    long min, max;
+    if (refType == Integer.class) { min = Integer.MIN_VALUE; max = Integer.MAX_VALUE; }
+    else if (refType == Short.class) { min = Short.MIN_VALUE; max = Short.MAX_VALUE; }
+    else if (refType == Byte.class) { min = Byte.MIN_VALUE; max = Byte.MAX_VALUE; }
+    else return;
+    if (value < min || max < value) {
+      throw new RlException.Usage("値が" + refType.getSimpleName() + "の範囲外です：" + name + "=" + value);
+    }
+  }
+  
+  /** DocValuesのlong値を、このフィールドの値に変換する */
+  @SuppressWarnings("unchecked")
+  T fromLong(long value) {
+    Class<?> refType = Misc.getReferenceClass(type);
+    if (refType == Integer.class) return (T)Integer.valueOf((int)value);
+    if (refType == Short.class) return (T)Short.valueOf((short)value);
+    if (refType == Byte.class) return (T)Byte.valueOf((byte)value);
+    return (T)Long.valueOf(value);
+  }
+  
   /**
    * フィールド値をLucene格納用のStringに変換する
    * @param value
@@ -181,6 +352,17 @@ public class RlField<T> {
     }
   }
   
+  /**
+   * インデックスの内容に影響する定義を文字列化する。{@link RlTableSet#getSchemaSignatures()}で使用される。
+   * アナライザは、トークン化される場合のみ、実際に使用されるものが含まれる。
+   */
+  String getSignature() {
+    return name + ":" + type.getName() + ",pk:" + pk + ",sto:" + store + ",tok:" + tokenized + ",upd:" + updatable
+        + ",conv:" + (fieldConverter == null ? "none" : fieldConverter.getClass().getName())
+        + ",analy:" + (!tokenized ? "none" : (analyzerClass != null ? analyzerClass : RlDefaults.analyzerClass).getName())
+        + (!sortable ? "" : ",sort:" + (collation == null ? "none" : collation.toLanguageTag()));
+  }
+  
   /**
    * 文字列化。デバッグ用
    */
@@ -209,6 +391,9 @@ public class RlField<T> {
     private boolean pk = false;
     private boolean store = false;
     private boolean tokenized = true;
+    private boolean updatable = false;
+    private boolean sortable = false;
+    private Locale collation = null;
     private Class<? extends RlFieldConverter<T>>converter = null;
     private Class<? extends RlAnalyzer>analyzer = null;
 
@@ -230,6 +415,10 @@ public class RlField<T> {
         this.pk = attr.pk();
         this.store = attr.store();
         this.tokenized = attr.tokenized();
+        this.updatable = attr.updatable();
+        this.sortable = attr.sortable();
+        if (!attr.collation().isEmpty())
+          this.collation = Locale.forLanguageTag(attr.collation());
         if (attr.converter() != RlFieldConverter.None.class)
           this.converter = (Class<? extends RlFieldConverter<T>>)attr.converter();
         if (attr.analyzer() != RlAnalyzer.Default.class)
@@ -262,6 +451,22 @@ public class RlField<T> {
       return this;
     }
     
+    public Builder<T> setUpdatable(boolean value) {
+      this.updatable = value;
+      return this;
+    }
+    
+    public Builder<T> setSortable(boolean value) {
+      this.sortable = value;
+      return this;
+    }
+    
+    /** ソート時の照合順序のロケールを指定する。nullの場合は文字コード順 */
+    public Builder<T> setCollation(Locale value) {
+      this.collation = value;
+      return this;
+    }
+    
     public Builder<T>setStore(boolean value) {
       this.store = value;
       return this;
@@ -311,6 +516,30 @@ public class RlField<T> {
         throw new RlException(s.toString());       
       }
 
+      // 更新可能フィールドはtokenized=falseの数値型のみ
+      if (updatable) {
+        Class<?> refType = Misc.getReferenceClass(type);
+        if (pk || tokenized || 
+            refType != Long.class && refType != Integer.class && refType != Short.class && refType != Byte.class) {
+          StringBuilder s = new StringBuilder();
+          s.append("updatable=trueのフィールドはpk=false、tokenized=falseの数値型でなければなりません：" + name + "\n");
+          if (javaField != null) {
+            s.append(javaField.getDeclaringClass() + "#" + javaField.getName());
+          }
+          throw new RlException(s.toString());
+        }
+      }
+
+      // ソート可能フィールドはtokenized=falseのみ。照合順序はソート可能な文字列フィールドのみ
+      if (sortable && tokenized || collation != null && !sortable) {
+        StringBuilder s = new StringBuilder();
+        s.append("sortable=trueのフィールドはtokenized=false、collationの指定にはsortable=trueが必要です：" + name + "\n");
+        if (javaField != null) {
+          s.append(javaField.getDeclaringClass() + "#" + javaField.getName());
+        }
+        throw new RlException(s.toString());
+      }
+
       RlField<T> f = new RlField<T>();
       f.javaField = javaField;
       f.type = type;
@@ -318,6 +547,13 @@ public class RlField<T> {
       f.pk = pk;
       f.store = store;
       f.tokenized = tokenized;
+      f.updatable = updatable;
+      f.sortable = sortable;
+      f.collation = collation;
+      if (collation != null && !f.isIntegral()) {
+        Locale locale = collation;
+        f.collators = ThreadLocal.withInitial(()->Collator.getInstance(locale));
+      }
       f.fieldConverter = fieldConverter;
       f.analyzerClass = analyzer;
       return f;
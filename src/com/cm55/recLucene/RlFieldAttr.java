@@ -49,6 +49,46 @@ public @interface RlFieldAttr {
    */
   public boolean tokenized() default true;
   
+  /**
+   * 更新可能フィールドであることを示す。
+   * <p>
+   * trueの場合、値はインデックスではなくLuceneのDocValuesとして格納され、
+   * {@link RlWriter#updateValue(Object, RlField, long)}によって、ドキュメント全体を書き込みなおすことなく
+   * 値だけを更新することができる。カウンタやステータスなど、頻繁に変更される数値に用いる。
+   * </p>
+   * <p>
+   * tokenized=falseであり、型がlong,int,short,byte（あるいはその参照型）でなければならない。pkにはできない。
+   * 値はstoreの指定に関わらず検索結果のオブジェクトに格納される。
+   * {@link RlQuery.Match}、{@link RlQuery.Range}で検索できるが、DocValuesを走査するため、通常のフィールドに比べて遅い。
+   * </p>
+   */
+  public boolean updatable() default false;
+  
+  /**
+   * ソート可能フィールドであることを示す。
+   * <p>
+   * trueの場合、インデックスに加えてDocValuesを格納し、{@link RlSortFields}によって検索結果をソートできるようにする。
+   * ソートは検索時のコレクタ内で行われるため、全結果をメモリに読み込む必要はない。
+   * tokenized=falseでなければならない。型がlong,int,short,byte（あるいはその参照型）の場合は数値として、
+   * それ以外はString変換後の文字列としてソートされる。
+   * </p>
+   * <p>
+   * 数値としてソートされるフィールドは、{@link RlSearcher#searchPkLongs(RlQuery)}等によって、
+   * ストアされた値を読み込むことなくDocValuesから値を取得することができる。
+   * 更新可能フィールドは、この指定がなくともソートできる。
+   * </p>
+   */
+  public boolean sortable() default false;
+  
+  /**
+   * ソート時の照合順序のロケール。
+   * <p>
+   * sortable=trueの文字列フィールドに"ja"等の言語タグを指定すると、そのロケールの{@link java.text.Collator}による
+   * 照合キーをDocValuesとして格納し、その順序でソートする。指定しない場合は文字コード順になる。
+   * </p>
+   */
+  public String collation() default "";
+  
   /**
    * フィールドコンバータ。
    * <p>
@@ -0,0 +1,116 @@
+package com.cm55.recLucene;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class RlFingerprintTest {
+
+  RlDatabase database;
+  RlClassTable<Foo> table;
+
+  @Before
+  public void before() {
+    table = new RlClassTable<>(Foo.class).setFingerprint(true);
+    database = new RlDatabase.Ram().add(table);
+  }
+
+  @After
+  public void after() {
+    database.close();
+  }
+
+  @Test
+  public void 変更時のみ書き込み() {
+    RlWriter writer = database.createWriter();
+    assertTrue(writer.writeIfChanged(new Foo("1", "test", 0)));
+    assertFalse(writer.writeIfChanged(new Foo("1", "test", 0)));
+    assertTrue(writer.writeIfChanged(new Foo("1", "changed", 0)));
+    assertTrue(writer.writeIfChanged(new Foo("1", null, 0)));
+    assertFalse(writer.writeIfChanged(new Foo("1", null, 0)));
+    assertTrue(writer.writeIfChanged(new Foo("1", "", 0)));
+
+    // 更新可能フィールドの値も比較される
+    writer.updateValue("1", "count", 5);
+    assertTrue(writer.writeIfChanged(new Foo("1", "", 0)));
+    assertFalse(writer.writeIfChanged(new Foo("1", "", 0)));
+
+    // まとめて書き込む。同じプライマリキーが複数ある場合は必ず書き込まれる
+    List<Foo> list = new ArrayList<>();
+    for (int i = 0; i < 10; i++) list.add(new Foo("" + i, "", 0));
+    list.add(new Foo("2", "again", 0));
+    assertEquals(10, writer.writeAllIfChanged(list));
+    assertEquals(4, writer.getStats().getSkipped());
+    
+    // "2"のみが以前の内容に戻る
+    assertEquals(1, writer.writeAllIfChanged(list.subList(0, 10)));
+    assertEquals(13, writer.getStats().getSkipped());
+
+    RlSearcher<Foo> searcher = database.createSearcher(Foo.class);
+    assertEquals(10, searcher.getAllByPk().size());
+    assertEquals(1, searcher.search(new RlQuery.Match("id", "2")).size());
+    searcher.close();
+    writer.close();
+  }
+
+  @Test
+  public void レコードごとにリフレッシュしない() throws Exception {
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 100; i++) assertTrue(writer.writeIfChanged(new Foo("" + i, "test", 0)));
+    }
+    
+    // 一件ごとにリフレッシュすると、その度に小さなセグメントが作成される
+    try (org.apache.lucene.index.DirectoryReader reader = 
+        org.apache.lucene.index.DirectoryReader.open(database.getDirectory())) {
+      assertEquals(100, reader.numDocs());
+      assertEquals(1, reader.leaves().size());
+    }
+    
+    // 削除の後は最新のリーダで判定される
+    try (RlWriter writer = database.createWriter()) {
+      assertFalse(writer.writeIfChanged(new Foo("1", "test", 0)));
+      writer.delete("id", "1");
+      assertTrue(writer.writeIfChanged(new Foo("1", "test", 0)));
+    }
+  }
+
+  @Test
+  public void フィンガープリントモードでない場合() {
+    RlAnyTable anyTable = new RlAnyTable(
+      new RlField.Builder<>(String.class).setName("anyId").setPk(true).build()
+    );
+    RlDatabase db = new RlDatabase.Ram().add(anyTable);
+    RlWriter writer = db.createWriter();
+    RlValues values = new RlValues();
+    values.put("anyId", "1");
+    try {
+      writer.writeIfChanged(anyTable, values);
+      fail();
+    } catch (RlException ex) {}
+    anyTable.setFingerprint(true);
+    assertTrue(writer.writeIfChanged(anyTable, values));
+    assertFalse(writer.writeIfChanged(anyTable, values));
+    writer.close();
+    db.close();
+  }
+
+  public static class Foo {
+    @RlFieldAttr(pk=true)
+    public String id;
+
+    @RlFieldAttr(store=true)
+    public String text;
+
+    @RlFieldAttr(tokenized=false, updatable=true, converter=RlFieldConverter.LongConv.class)
+    public long count;
+
+    public Foo() {}
+    public Foo(String id, String text, long count) {
+      this.id = id;
+      this.text = text;
+      this.count = count;
+    }
+  }
+}
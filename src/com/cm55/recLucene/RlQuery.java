@@ -3,6 +3,7 @@ package com.cm55.recLucene;
 import java.io.*;
 import java.util.*;
 
+import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
 
@@ -46,6 +47,12 @@ public abstract class RlQuery {
       AbstractTerm ft = (AbstractTerm)o;
       return this.fieldName.equals(ft.fieldName);
     }
+    
+    /** ハッシュ値。{@link #equals(Object)}と一貫させる */
+    @Override
+    public int hashCode() {
+      return fieldName.hashCode();
+    }
   }
   
   /**
@@ -71,6 +78,11 @@ public abstract class RlQuery {
       if (!super.equals(o)) return false;
       return this.value.equals(((SingleValue)o).value);
     }
+    
+    @Override
+    public int hashCode() {
+      return super.hashCode() * 31 + value.hashCode();
+    }
 
     /** 文字列化。デバッグ用 */
     @Override
@@ -121,6 +133,11 @@ public abstract class RlQuery {
         this.incMin == that.incMin &&
         this.incMax == that.incMax;
     }
+    
+    @Override
+    public int hashCode() {
+      return Objects.hash(fieldName, min, max, incMin, incMax);
+    }
   }
   
   /** 
@@ -145,7 +162,16 @@ public abstract class RlQuery {
       if (field == null) 
         throw new RlException("Match field not found: " + fieldName + " in " + table.getTableName());
       checkValidity(field);
-      return new TermQuery(new Term(fieldName, field.toString(value)));
+      Query query;
+      if (field.isUpdatable()) {
+        query = NumericDocValuesField.newSlowExactQuery(fieldName, field.toLong(value));
+      } else {
+        query = new TermQuery(new Term(fieldName, field.toString(value)));
+      }
+      
+      // プライマリキーは毎回異なる値が指定されるため、フィルタキャッシュで常にキャッシュする対象とはしない
+      if (field.isPk()) return query;
+      return new RlQueryCache.FilterQuery(query);
     }
 
     private void checkValidity(RlField<?> field) {
@@ -255,9 +281,21 @@ public abstract class RlQuery {
       RlField<Object> field = (RlField<Object>)table.getFieldByName(fieldName);
       if (field == null) throw new RlException("field not found:" + fieldName);
       checkValidity(field);
+      if (field.isUpdatable()) {
+        long lower = field.toLong(min), upper = field.toLong(max);
+        if (!incMin) {
+          if (lower == Long.MAX_VALUE) return new MatchNoDocsQuery();
+          lower++;
+        }
+        if (!incMax) {
+          if (upper == Long.MIN_VALUE) return new MatchNoDocsQuery();
+          upper--;
+        }
+        return new RlQueryCache.FilterQuery(NumericDocValuesField.newSlowRangeQuery(fieldName, lower, upper));
+      }
       Query query = TermRangeQuery.newStringRange(fieldName, 
           field.toString(min), field.toString(max), incMin, incMax);
-      return query;
+      return new RlQueryCache.FilterQuery(query);
     }
     
     private void checkValidity(RlField<?> field) {
@@ -299,6 +337,17 @@ public abstract class RlQuery {
       return builder.build();
     }
     
+    @Override
+    public boolean equals(Object o) {
+      if (!getClass().isInstance(o)) return false;
+      return this.subQuery.equals(((Not)o).subQuery);
+    }
+    
+    @Override
+    public int hashCode() {
+      return ~subQuery.hashCode();
+    }
+    
     /** 文字列化。デバッグ用 */
     @Override
     public String toString() {
@@ -337,13 +386,18 @@ public abstract class RlQuery {
     public <S> Query getLuceneQuery(RlTable<S> table) {
       BooleanQuery.Builder builder = new BooleanQuery.Builder();
       for (RlQuery query : queryList) {
-        builder.add(query.getLuceneQuery(table), getOccur());
+        builder.add(query.getLuceneQuery(table), getOccur(query));
       }
       return builder.build();
     }
 
     protected abstract BooleanClause.Occur getOccur();
     
+    /** 指定されたクエリの条件。通常は{@link #getOccur()}と同じ */
+    protected BooleanClause.Occur getOccur(RlQuery query) {
+      return getOccur();
+    }
+    
     @Override
     public boolean equals(Object o) {
       if (!getClass().isInstance(o)) return false;
@@ -355,6 +409,11 @@ public abstract class RlQuery {
       return true;
     }
     
+    @Override
+    public int hashCode() {
+      return queryList.hashCode();
+    }
+    
     /** 
      * コンパクション
      * <p>
@@ -397,6 +456,16 @@ public abstract class RlQuery {
       return BooleanClause.Occur.MUST;
     }
     
+    /**
+     * {@link Match}、{@link Range}はスコアに影響しないため、スコアを計算しないFILTER条件とする。
+     * これにより、一致ドキュメント集合がLuceneのフィルタキャッシュの対象になる。
+     */
+    @Override
+    protected BooleanClause.Occur getOccur(RlQuery query) {
+      if (query instanceof Match || query instanceof AbstractRange) return BooleanClause.Occur.FILTER;
+      return getOccur();
+    }
+    
     /** 文字列化。デバッグ用 */
     @Override
     public String toString() {
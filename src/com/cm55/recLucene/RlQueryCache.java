@@ -0,0 +1,200 @@
+package com.cm55.recLucene;
+
+import java.io.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+
+/**
+ * データベースごとのLuceneのフィルタキャッシュ
+ * <p>
+ * Luceneは、スコアを計算しないクエリ（{@link RlQuery.And}中の{@link RlQuery.Match}、{@link RlQuery.Range}や
+ * {@link RlQuery.Not}の対象）のセグメントごとの一致ドキュメント集合をビットセットとしてキャッシュすることができる。
+ * これを{@link RlDatabase#setQueryCache(RlQueryCache)}で設定すると、Lucene全体で共有される既定のキャッシュの代わりに、
+ * そのデータベース専用のキャッシュが使用される。
+ * </p>
+ * <p>
+ * キャッシュするクエリの決定方法は、Luceneの既定とは異なる。{@link RlQuery.Match}（プライマリキー以外）、
+ * {@link RlQuery.Range}によるクエリは、状態=有効のような繰り返し使われる条件であることが多いため、初回から常にキャッシュする。
+ * それ以外のクエリは、Luceneの既定と同じく使用頻度によって決定する（単一の項のクエリはキャッシュされない）。
+ * 設定しない場合は、既定のキャッシュがLuceneの既定の決定方法のまま使用される。
+ * </p>
+ * @author ysugimura
+ */
+public class RlQueryCache {
+
+  /** キャッシュ対象とする最小のセグメントのドキュメント数の初期値 */
+  public static final int DEFAULT_MIN_SEGMENT_DOCS = 10000;
+
+  /** Luceneのキャッシュ */
+  private final LRUQueryCache luceneCache;
+
+  /** キャッシュするクエリの決定方法 */
+  private final QueryCachingPolicy policy = new Policy();
+
+  /**
+   * 最大数と最大メモリ量を指定する。
+   * ドキュメント数が{@link #DEFAULT_MIN_SEGMENT_DOCS}未満のセグメントはキャッシュしない。
+   * @param maxSize キャッシュするクエリの最大数
+   * @param maxRamMB 最大メモリ量（MB）
+   */
+  public RlQueryCache(int maxSize, double maxRamMB) {
+    this(maxSize, maxRamMB, DEFAULT_MIN_SEGMENT_DOCS);
+  }
+
+  /**
+   * 最大数と最大メモリ量、キャッシュ対象とする最小のセグメントのドキュメント数を指定する
+   * @param maxSize キャッシュするクエリの最大数
+   * @param maxRamMB 最大メモリ量（MB）
+   * @param minSegmentDocs キャッシュ対象とする最小のセグメントのドキュメント数。
+   * 小さなセグメントはキャッシュしなくとも速く、またマージによってすぐに無くなる。
+   */
+  public RlQueryCache(int maxSize, double maxRamMB, int minSegmentDocs) {
+    if (maxSize < 1 || maxRamMB <= 0) {
+      throw new RlException.Usage("最大数と最大メモリ量は正でなければなりません");
+    }
+    luceneCache = new LRUQueryCache(maxSize, (long)(maxRamMB * 1024 * 1024),
+        leaf->leaf.reader().maxDoc() >= minSegmentDocs);
+  }
+
+  /** Luceneのキャッシュを取得する */
+  QueryCache getLuceneCache() {
+    return luceneCache;
+  }
+
+  /** キャッシュするクエリの決定方法を取得する */
+  QueryCachingPolicy getPolicy() {
+    return policy;
+  }
+
+  /** キャッシュにあった回数を取得する */
+  public long getHitCount() {
+    return luceneCache.getHitCount();
+  }
+
+  /** キャッシュになかった回数を取得する */
+  public long getMissCount() {
+    return luceneCache.getMissCount();
+  }
+
+  /** 破棄されたビットセットの数を取得する */
+  public long getEvictionCount() {
+    return luceneCache.getEvictionCount();
+  }
+
+  /** 現在保持しているビットセットの数を取得する */
+  public long getCacheSize() {
+    return luceneCache.getCacheSize();
+  }
+
+  /** これまでにキャッシュしたビットセットの数を取得する */
+  public long getCacheCount() {
+    return luceneCache.getCacheCount();
+  }
+
+  /** 使用中のメモリ量を取得する */
+  public long getRamBytesUsed() {
+    return luceneCache.ramBytesUsed();
+  }
+
+  /** すべてのキャッシュを破棄する */
+  public void clear() {
+    luceneCache.clear();
+  }
+
+  @Override
+  public String toString() {
+    return "hit:" + getHitCount() + ",miss:" + getMissCount() + ",eviction:" + getEvictionCount()
+        + ",size:" + getCacheSize() + ",ram:" + getRamBytesUsed();
+  }
+
+  /**
+   * {@link FilterQuery}を常にキャッシュする。
+   * それ以外は使用頻度による
+   */
+  private static class Policy implements QueryCachingPolicy {
+
+    private final UsageTrackingQueryCachingPolicy usageTracking = new UsageTrackingQueryCachingPolicy();
+
+    @Override
+    public void onUse(Query query) {
+      usageTracking.onUse(query);
+    }
+
+    @Override
+    public boolean shouldCache(Query query) throws IOException {
+      if (query instanceof FilterQuery) return true;
+      return usageTracking.shouldCache(query);
+    }
+  }
+  
+  /**
+   * {@link RlQueryCache}を設定せず、Luceneの既定のキャッシュを使用する場合の決定方法。
+   * Luceneの既定の決定方法はクエリのクラスによって判断するため、{@link FilterQuery}ではなく包まれたクエリを渡す。
+   * これにより、{@link RlQuery.Match}等によるクエリは、包まれていない場合と同じに扱われる。
+   */
+  static class DefaultPolicy implements QueryCachingPolicy {
+    
+    private final QueryCachingPolicy policy;
+    
+    DefaultPolicy(QueryCachingPolicy policy) {
+      this.policy = policy;
+    }
+    
+    @Override
+    public void onUse(Query query) {
+      policy.onUse(unwrap(query));
+    }
+    
+    @Override
+    public boolean shouldCache(Query query) throws IOException {
+      return policy.shouldCache(unwrap(query));
+    }
+    
+    private static Query unwrap(Query query) {
+      return query instanceof FilterQuery? ((FilterQuery)query).query:query;
+    }
+  }
+  
+  /**
+   * {@link RlQuery.Match}（プライマリキー以外）、{@link RlQuery.Range}が作成するクエリ。
+   * 常にキャッシュする対象であることを示すために包むだけであり、一致するドキュメントとスコアは包まれたクエリと同じである。
+   */
+  static final class FilterQuery extends Query {
+    
+    /** 包まれたクエリ */
+    final Query query;
+    
+    FilterQuery(Query query) {
+      this.query = query;
+    }
+    
+    @Override
+    public Query rewrite(IndexReader reader) throws IOException {
+      Query rewritten = query.rewrite(reader);
+      if (rewritten == query) return this;
+      return new FilterQuery(rewritten);
+    }
+    
+    @Override
+    public Weight createWeight(IndexSearcher searcher, boolean needsScores, float boost) throws IOException {
+      // キャッシュの決定に使用されるクエリがこのオブジェクトとなるように、Weightも包む
+      return new FilterWeight(this, query.createWeight(searcher, needsScores, boost)) {};
+    }
+    
+    @Override
+    public String toString(String field) {
+      return query.toString(field);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      return sameClassAs(o) && query.equals(((FilterQuery)o).query);
+    }
+    
+    @Override
+    public int hashCode() {
+      return 31 * classHash() + query.hashCode();
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package com.cm55.recLucene;
+
+import static org.junit.Assert.*;
+
+import org.apache.lucene.search.*;
+import org.junit.*;
+
+public class RlQueryCacheTest {
+
+  @Test
+  public void フィルタ条件のキャッシュ() {
+    RlDatabase database = new RlDatabase.Ram().add(Foo.class);
+    RlQueryCache cache = new RlQueryCache(100, 1, 0);
+    database.setQueryCache(cache);
+    assertSame(cache, database.getQueryCache());
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 100; i++) writer.write(new Foo("" + i, i % 3 == 0? "active":"inactive", "説明"));
+    }
+    RlQuery query = new RlQuery.And(new RlQuery.Word("text", "説明"), new RlQuery.Match("status", "active"));
+    try (RlSearcher<Foo> searcher = database.createSearcher(Foo.class)) {
+      assertEquals(34, searcher.search(query).size());
+      assertEquals(1, cache.getCacheCount());
+      assertEquals(0, cache.getHitCount());
+      
+      // 同じ条件は、別のクエリ中にあってもキャッシュから取得される
+      assertEquals(34, searcher.search(query).size());
+      assertEquals(66, searcher.count(new RlQuery.And(
+          new RlQuery.Word("text", "説明"), new RlQuery.Not(new RlQuery.Match("status", "active")))));
+      assertEquals(2, cache.getHitCount());
+      assertTrue(cache.getRamBytesUsed() > 0);
+    }
+    database.close();
+  }
+
+  @Test
+  public void プライマリキーはキャッシュしない() {
+    RlDatabase database = new RlDatabase.Ram().add(Foo.class);
+    RlQueryCache cache = new RlQueryCache(100, 1, 0);
+    database.setQueryCache(cache);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 100; i++) writer.write(new Foo("" + i, "active", "説明"));
+    }
+    try (RlSearcher<Foo> searcher = database.createSearcher(Foo.class)) {
+      for (int i = 0; i < 10; i++) {
+        assertEquals(1, searcher.count(new RlQuery.Match("id", "" + i)));
+      }
+      assertEquals(0, cache.getCacheCount());
+    }
+    database.close();
+  }
+
+  @Test
+  public void 既定のキャッシュの決定方法() throws Exception {
+    RlDatabase database = new RlDatabase.Ram().add(Foo.class);
+    try (RlWriter writer = database.createWriter()) {
+      writer.write(new Foo("1", "active", "説明"));
+    }
+    Query match = new RlQuery.Match("status", "active").getLuceneQuery(database.getTableSet().getTable(Foo.class));
+    assertTrue(match instanceof RlQueryCache.FilterQuery);
+    
+    // RlQueryCacheを設定しない場合、包まれたTermQueryはLuceneの既定通りキャッシュされない
+    SearcherManager manager = database.writerHolder.getSearcherManager();
+    IndexSearcher searcher = manager.acquire();
+    try {
+      for (int i = 0; i < 10; i++) searcher.getQueryCachingPolicy().onUse(match);
+      assertFalse(searcher.getQueryCachingPolicy().shouldCache(match));
+    } finally {
+      manager.release(searcher);
+    }
+    
+    // 設定した場合は、初回からキャッシュされる
+    assertTrue(new RlQueryCache(100, 1).getPolicy().shouldCache(match));
+    database.close();
+  }
+
+  public static class Foo {
+    @RlFieldAttr(pk=true)
+    public String id;
+
+    @RlFieldAttr(tokenized=false)
+    public String status;
+    
+    public String text;
+
+    public Foo() {}
+    public Foo(String id, String status, String text) {
+      this.id = id;
+      this.status = status;
+      this.text = text;
+    }
+  }
+}
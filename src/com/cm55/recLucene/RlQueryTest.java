@@ -106,6 +106,21 @@ public class RlQueryTest {
 
   }
   
+  @Test
+  public void hashCodeTest() {
+    assertEquals(
+        new Match("field1", "1234").hashCode(),
+        new Match("field1", "1234").hashCode());
+    assertEquals(
+        new Range("field1", "10", "20").hashCode(),
+        new Range("field1", "10", "20").hashCode());
+    assertEquals(
+        new And(new Word("field1", "1234"), new Not(new Match("field2", "1"))).hashCode(),
+        new And(new Word("field1", "1234"), new Not(new Match("field2", "1"))).hashCode());
+    assertEquals(new Not(new Match("field2", "1")), new Not(new Match("field2", "1")));
+    assertNotEquals(new Not(new Match("field2", "1")), new Not(new Match("field2", "2")));
+  }
+  
   
   @Test
   public void debugStringTest() {
@@ -0,0 +1,344 @@
+package com.cm55.recLucene;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.*;
+
+/**
+ * データベースの全面的な再構築を行う。
+ * <p>
+ * レコードのソースをいくつかのパーティションに分け、パーティションごとに作業フォルダ中の一時インデックスに
+ * 並列に書き込む。各一時インデックスはそれぞれ独自の{@link IndexWriter}を持つため、
+ * 単一の{@link RlWriter}で書き込むよりもCPUコア数に応じて高速になる。
+ * すべてのパーティションが終了すると、{@link IndexWriter#addIndexes(Directory...)}によって
+ * それらを一度にデータベースに取り込み、コミットする。取り込みはファイル単位で行われ、再インデックスは行われない。
+ * </p>
+ * <p>
+ * 各パーティションは一定件数ごとにコミットし、そのコミットデータに処理済み件数を記録する（チェックポイント）。
+ * 途中でプロセスが終了した場合でも、同じ作業フォルダを指定して同じソースで再度実行すれば、
+ * 各パーティションの処理済み件数以降から再開される。このため、{@link Source}は同じパーティションについて
+ * 常に同じ順序でレコードを返さなければならない。
+ * </p>
+ * <p>
+ * 同じソースであるかは、チェックポイントに記録された{@link Source#getId()}とパーティション数によって判断する。
+ * 識別子の無いソースや、識別子あるいはパーティション数の異なるソースの場合、既存のチェックポイントは破棄され、最初から書き込まれる。
+ * また、取り込みと同じコミットでデータベースに実行IDが記録されるため、取り込み後に一時インデックスを削除する前に
+ * 終了した場合でも、それらが再び取り込まれることはない。
+ * </p>
+ * <p>
+ * 同一のプライマリキーを持つレコードは、同じパーティションに含まれなければならない。
+ * 異なるパーティションに含まれる場合は、重複して登録される。
+ * </p>
+ * @author ysugimura
+ */
+public class RlRebuild {
+
+  /** コミットデータにおける処理済み件数のキー */
+  static final String POSITION_KEY = "rlRebuild.position";
+
+  /** コミットデータにおける終了マークのキー */
+  static final String DONE_KEY = "rlRebuild.done";
+
+  /** コミットデータにおけるソースの識別子のキー */
+  static final String SOURCE_KEY = "rlRebuild.source";
+
+  /** コミットデータにおけるパーティション数のキー */
+  static final String PARTITIONS_KEY = "rlRebuild.partitions";
+
+  /** 
+   * コミットデータにおける実行IDのキー。
+   * 一時インデックスではそれを作成した実行を、データベースでは最後に取り込んだ実行を示す
+   */
+  static final String RUN_KEY = "rlRebuild.run";
+
+  /**
+   * 再構築するレコードのソース
+   * @param <T> レコードの型
+   */
+  public interface Source<T> {
+
+    /** パーティション数を取得する */
+    int getPartitionCount();
+
+    /**
+     * 指定パーティションのレコードを、先頭からskip件を除いて取得する
+     * @param partition パーティション番号。0から{@link #getPartitionCount()}-1まで
+     * @param skip 読み飛ばす件数。チェックポイントから再開する場合に0以外になる
+     * @return レコードの反復子
+     */
+    Iterator<T> open(int partition, long skip);
+
+    /**
+     * ソースの識別子を取得する。
+     * チェックポイントからの再開は、前回と同じ識別子かつ同じパーティション数のソースについてのみ行われる。
+     * 内容の異なるソースには、異なる識別子を返さなければならない。
+     * @return 識別子。nullの場合はチェックポイントから再開せず、常に最初から書き込む
+     */
+    default String getId() {
+      return null;
+    }
+
+    /**
+     * 反復可能オブジェクトのリストからソースを作成する。識別子は無いため、チェックポイントからの再開は行われない。
+     * 読み飛ばしは、先頭から一件ずつ読み捨てることによって行う。
+     * @param partitions パーティションごとのレコード
+     * @return ソース
+     */
+    public static <T> Source<T> of(List<? extends Iterable<T>> partitions) {
+      return of(null, partitions);
+    }
+
+    /**
+     * 反復可能オブジェクトのリストから、識別子を持つソースを作成する。
+     * 読み飛ばしは、先頭から一件ずつ読み捨てることによって行う。
+     * @param id 識別子
+     * @param partitions パーティションごとのレコード
+     * @return ソース
+     */
+    public static <T> Source<T> of(String id, List<? extends Iterable<T>> partitions) {
+      return new Source<T>() {
+        public String getId() {
+          return id;
+        }
+        public int getPartitionCount() {
+          return partitions.size();
+        }
+        public Iterator<T> open(int partition, long skip) {
+          Iterator<T> iterator = partitions.get(partition).iterator();
+          for (long i = 0; i < skip && iterator.hasNext(); i++) iterator.next();
+          return iterator;
+        }
+      };
+    }
+  }
+
+  /** 対象とするデータベース */
+  private final RlDatabase database;
+
+  /** 作業フォルダ */
+  private final Path workDir;
+
+  /** チェックポイントの間隔 */
+  private long checkpointInterval = 100000;
+
+  /** 同時に処理するパーティション数。0の場合はCPUコア数 */
+  private int threads;
+
+  /**
+   * データベースと作業フォルダを指定する
+   * @param database 対象とするデータベース
+   * @param workDir 作業フォルダ。存在しなければ作成される。再構築が終了すると中の一時インデックスは削除される。
+   */
+  public RlRebuild(RlDatabase database, Path workDir) {
+    this.database = database;
+    this.workDir = workDir;
+  }
+
+  /**
+   * チェックポイントの間隔を設定する。初期値は100000件
+   * @param value パーティションごとのレコード数
+   * @return このオブジェクト
+   */
+  public RlRebuild setCheckpointInterval(long value) {
+    if (value < 1) throw new RlException.Usage("チェックポイントの間隔は1以上でなければなりません");
+    checkpointInterval = value;
+    return this;
+  }
+
+  /**
+   * 同時に処理するパーティション数を設定する。初期値はCPUコア数
+   * @param value スレッド数
+   * @return このオブジェクト
+   */
+  public RlRebuild setThreads(int value) {
+    if (value < 1) throw new RlException.Usage("スレッド数は1以上でなければなりません");
+    threads = value;
+    return this;
+  }
+
+  /**
+   * 再構築を行う。
+   * <p>
+   * パーティションへの書き込み中は、データベースの読み書きを通常通り行うことができる。
+   * 最後の取り込みは{@link RlDatabase#replace(java.util.function.Consumer)}と同様に別のディレクトリに対して行われ、
+   * その間もサーチャは以前の内容を検索することができる。ライタについては、すべてがclose()されるまで待ち、
+   * 取り込みの間はその作成がブロックされる。取り込みがコミットされると、データベースの以前の内容はすべて置き換えられる。
+   * </p>
+   * @param source レコードのソース
+   * @return 再構築後のドキュメント数
+   */
+  public <T> int run(Source<T> source) {
+    int partitions = source.getPartitionCount();
+    Directory[] shards = new Directory[partitions];
+    int count;
+    try {
+      Files.createDirectories(workDir);
+      for (int i = 0; i < partitions; i++) {
+        shards[i] = FSDirectory.open(getShardPath(i));
+      }
+      String runId = getResumableRun(source, shards);
+      if (runId == null) {
+        // 再開できないチェックポイントは破棄する
+        for (Directory shard: shards) clear(shard);
+        runId = UUID.randomUUID().toString();
+      }
+      buildShards(source, shards, runId);
+      count = database.replaceAll(shards, RUN_KEY, runId);
+      removeShards(shards);
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    } finally {
+      for (Directory shard: shards) {
+        if (shard == null) continue;
+        try {
+          shard.close();
+        } catch (IOException ex) {}
+      }
+    }
+    
+    // 取り込みが終了したので一時インデックスのフォルダを削除する
+    try {
+      for (int i = 0; i < partitions; i++) Files.deleteIfExists(getShardPath(i));
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    }
+    return count;
+  }
+  
+  /** パーティションの一時インデックスのフォルダを取得する */
+  private Path getShardPath(int partition) {
+    return workDir.resolve("shard" + partition);
+  }
+
+  /**
+   * 一時インデックスのチェックポイントから再開可能であれば、その実行IDを取得する。
+   * ソースの識別子とパーティション数が一致し、まだデータベースに取り込まれていない場合のみ再開可能である。
+   * @param source レコードのソース
+   * @param shards 一時インデックス
+   * @return 実行ID。再開できない場合はnull
+   * @throws IOException
+   */
+  private String getResumableRun(Source<?> source, Directory[] shards) throws IOException {
+    String sourceId = source.getId();
+    if (sourceId == null) return null;
+    String runId = null;
+    for (Directory shard: shards) {
+      if (!DirectoryReader.indexExists(shard)) continue;
+      Map<String, String> userData = SegmentInfos.readLatestCommit(shard).getUserData();
+      if (!sourceId.equals(userData.get(SOURCE_KEY))) return null;
+      if (!Integer.toString(shards.length).equals(userData.get(PARTITIONS_KEY))) return null;
+      String shardRun = userData.get(RUN_KEY);
+      if (shardRun == null || runId != null && !runId.equals(shardRun)) return null;
+      runId = shardRun;
+    }
+    
+    // 取り込み済みのものは再開しない
+    if (runId == null || runId.equals(database.getCommitData(RUN_KEY))) return null;
+    return runId;
+  }
+
+  /**
+   * 取り込みの終了した一時インデックスを削除する
+   * @param shards 一時インデックス
+   * @throws IOException
+   */
+  void removeShards(Directory[] shards) throws IOException {
+    for (Directory shard: shards) clear(shard);
+  }
+
+  /** 一時インデックスのファイルをすべて削除する */
+  private static void clear(Directory shard) throws IOException {
+    for (String file: shard.listAll()) shard.deleteFile(file);
+  }
+
+  /** 各パーティションを並列に書き込む */
+  private <T> void buildShards(Source<T> source, Directory[] shards, String runId) throws IOException {
+    Map<String, String> identity = new HashMap<>();
+    if (source.getId() != null) identity.put(SOURCE_KEY, source.getId());
+    identity.put(PARTITIONS_KEY, Integer.toString(shards.length));
+    identity.put(RUN_KEY, runId);
+
+    int poolSize = Math.min(shards.length,
+        threads > 0? threads:Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(poolSize, 1));
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < shards.length; i++) {
+        int partition = i;
+        futures.add(executor.submit(()-> {
+          buildShard(source, partition, shards[partition], identity);
+          return null;
+        }));
+      }
+      for (Future<?> future: futures) {
+        try {
+          future.get();
+        } catch (ExecutionException ex) {
+          Throwable cause = ex.getCause();
+          if (cause instanceof RlException) throw (RlException)cause;
+          if (cause instanceof IOException) throw (IOException)cause;
+          throw new RlException(cause);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw new RlException(ex);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /** 
+   * 一つのパーティションを書き込む。チェックポイントがあればそこから再開する
+   * @param identity チェックポイントに記録する、ソースと実行の識別情報
+   */
+  private <T> void buildShard(Source<T> source, int partition, Directory shard, 
+      Map<String, String> identity) throws IOException {
+    Map<String, String> userData = DirectoryReader.indexExists(shard)?
+        SegmentInfos.readLatestCommit(shard).getUserData():Collections.emptyMap();
+    if (userData.containsKey(DONE_KEY)) return;
+    long position = userData.containsKey(POSITION_KEY)? Long.parseLong(userData.get(POSITION_KEY)):0;
+
+    RlTableSet tableSet = database.getTableSet();
+    IndexWriterConfig config = database.getWriterOptions().createConfig(tableSet.getPerFieldAnalyzer());
+    
+    // 異常終了時に、チェックポイント以降の書き込みがコミットされないようにする
+    config.setCommitOnClose(false);
+    try (IndexWriter writer = new IndexWriter(shard, config)) {
+      Iterator<T> iterator = source.open(partition, position);
+      while (iterator.hasNext()) {
+        T rec = iterator.next();
+        @SuppressWarnings("unchecked")
+        RlClassTable<T> table = tableSet.getTable((Class<T>)rec.getClass());
+        if (table == null) {
+          throw new RlException(rec.getClass().getName() + "は登録されていません");
+        }
+        Term pkTerm = table.getPkTerm(rec);
+        Document doc = table.getReusableDocument(rec);
+        if (pkTerm == null) {
+          writer.addDocument(doc);
+        } else {
+          writer.updateDocument(pkTerm, doc);
+        }
+        if (++position % checkpointInterval == 0) {
+          checkpoint(writer, identity, POSITION_KEY, Long.toString(position));
+        }
+      }
+      checkpoint(writer, identity, DONE_KEY, "true");
+    }
+  }
+
+  /** 識別情報と指定された値をコミットデータに設定してコミットする */
+  private void checkpoint(IndexWriter writer, Map<String, String> identity, String key, String value) 
+      throws IOException {
+    Map<String, String> userData = new HashMap<>(identity);
+    userData.put(key, value);
+    writer.setLiveCommitData(userData.entrySet());
+    writer.commit();
+  }
+}
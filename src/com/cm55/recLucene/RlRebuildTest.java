@@ -0,0 +1,165 @@
+package com.cm55.recLucene;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.*;
+
+import org.apache.lucene.store.*;
+import org.junit.*;
+
+public class RlRebuildTest {
+
+  Path workDir;
+  RlDatabase database;
+
+  @Before
+  public void before() throws IOException {
+    workDir = Files.createTempDirectory("rlRebuild");
+    database = new RlDatabase.Ram().add(Foo.class);
+  }
+
+  @After
+  public void after() throws IOException {
+    database.close();
+    try (Stream<Path> paths = Files.walk(workDir)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Test
+  public void 再構築() {
+    try (RlWriter writer = database.createWriter()) {
+      writer.write(new Foo("old", "old"));
+    }
+    List<List<Foo>> partitions = new ArrayList<>();
+    for (int p = 0; p < 3; p++) {
+      List<Foo> list = new ArrayList<>();
+      for (int i = 0; i < 100; i++) list.add(new Foo(p + "-" + i, "test"));
+      partitions.add(list);
+    }
+    assertEquals(300, database.rebuild(workDir, RlRebuild.Source.of(partitions)));
+
+    try (RlSearcher<Foo> searcher = database.createSearcher(Foo.class)) {
+      assertEquals(300, searcher.getAllByPk().size());
+      assertEquals(0, searcher.search(new RlQuery.Match("id", "old")).size());
+    }
+    // 一時インデックスは削除されている
+    assertFalse(Files.exists(workDir.resolve("shard0")));
+  }
+
+  @Test
+  public void チェックポイントからの再開() {
+    List<Long> skips = Collections.synchronizedList(new ArrayList<>());
+    boolean[] fail = { true };
+    RlRebuild.Source<Foo> source = new RlRebuild.Source<Foo>() {
+      public String getId() {
+        return "foo";
+      }
+      public int getPartitionCount() {
+        return 2;
+      }
+      public Iterator<Foo> open(int partition, long skip) {
+        skips.add(partition * 1000 + skip);
+        return LongStream.range(skip, 100).mapToObj(i-> {
+          // パーティション1は、最初は55件目で失敗する
+          if (partition == 1 && i == 55 && fail[0]) throw new IllegalStateException("fail");
+          return new Foo(partition + "-" + i, "test");
+        }).iterator();
+      }
+    };
+    try {
+      new RlRebuild(database, workDir).setCheckpointInterval(10).setThreads(2).run(source);
+      fail();
+    } catch (RlException ex) {}
+
+    // パーティション0は終了済み、パーティション1は50件目から再開される
+    skips.clear();
+    fail[0] = false;
+    assertEquals(200, new RlRebuild(database, workDir).setCheckpointInterval(10).run(source));
+    assertEquals(Arrays.asList(1050L), skips);
+
+    try (RlSearcher<Foo> searcher = database.createSearcher(Foo.class)) {
+      assertEquals(200, searcher.getAllByPk().size());
+    }
+  }
+
+  @Test
+  public void 異なるソースは再開しない() {
+    RlRebuild.Source<Foo> failing = new RlRebuild.Source<Foo>() {
+      public String getId() {
+        return "first";
+      }
+      public int getPartitionCount() {
+        return 1;
+      }
+      public Iterator<Foo> open(int partition, long skip) {
+        return LongStream.range(skip, 100).mapToObj(i-> {
+          if (i == 55) throw new IllegalStateException("fail");
+          return new Foo("first-" + i, "first");
+        }).iterator();
+      }
+    };
+    try {
+      new RlRebuild(database, workDir).setCheckpointInterval(10).run(failing);
+      fail();
+    } catch (RlException ex) {}
+
+    // チェックポイントは破棄され、新たなソースのみが取り込まれる
+    assertEquals(30, new RlRebuild(database, workDir).setCheckpointInterval(10).run(source("second", 1, 30)));
+    try (RlSearcher<Foo> searcher = database.createSearcher(Foo.class)) {
+      assertTrue(searcher.getAllByPk().stream().noneMatch(foo->foo.id.startsWith("first-")));
+    }
+  }
+
+  @Test
+  public void 取り込み済みの一時インデックスは再利用しない() {
+    try {
+      new RlRebuild(database, workDir) {
+        @Override
+        void removeShards(Directory[] shards) throws IOException {
+          // 入れ替えの後、一時インデックスを削除する前に異常終了した
+          throw new IOException("crash");
+        }
+      }.run(source("data", 2, 50));
+      fail();
+    } catch (RlException ex) {}
+    try (RlSearcher<Foo> searcher = database.createSearcher(Foo.class)) {
+      assertEquals(100, searcher.getAllByPk().size());
+    }
+    assertTrue(Files.exists(workDir.resolve("shard0")));
+
+    // 同じ識別子であっても、取り込み済みの内容ではなく、新たに読み込まれる
+    assertEquals(60, database.rebuild(workDir, source("data", 2, 30)));
+    try (RlSearcher<Foo> searcher = database.createSearcher(Foo.class)) {
+      assertEquals(60, searcher.getAllByPk().size());
+    }
+    assertFalse(Files.exists(workDir.resolve("shard0")));
+  }
+
+  /** 識別子を持ち、各パーティションにsize件のレコードを持つソースを作成する */
+  private static RlRebuild.Source<Foo> source(String id, int partitions, int size) {
+    List<List<Foo>> lists = new ArrayList<>();
+    for (int p = 0; p < partitions; p++) {
+      List<Foo> list = new ArrayList<>();
+      for (int i = 0; i < size; i++) list.add(new Foo(p + "-" + i, id));
+      lists.add(list);
+    }
+    return RlRebuild.Source.of(id, lists);
+  }
+
+  public static class Foo {
+    @RlFieldAttr(pk=true)
+    public String id;
+
+    public String text;
+
+    public Foo() {}
+    public Foo(String id, String text) {
+      this.id = id;
+      this.text = text;
+    }
+  }
+}
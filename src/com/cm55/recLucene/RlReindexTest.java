@@ -0,0 +1,153 @@
+package com.cm55.recLucene;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.*;
+
+public class RlReindexTest {
+
+  Path tempDir;
+
+  @Before
+  public void before() throws IOException {
+    tempDir = Files.createTempDirectory("rlReindex");
+  }
+
+  @After
+  public void after() throws IOException {
+    try (java.util.stream.Stream<Path> paths = Files.walk(tempDir)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Test
+  public void ストアされた値からの再インデックス() throws Exception {
+    File folder = tempDir.resolve("db").toFile();
+    
+    // トークン化して作成する
+    RlAnyTable original = createTable(true);
+    RlDatabase database = new RlDatabase.Dir(folder).add(original);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 10; i++) writer.write(original, values("" + i, "東京都 港区" + i));
+    }
+    assertFalse(database.isSchemaChanged());
+    database.close();
+    
+    // トークン化しない定義に変更する
+    RlAnyTable table = createTable(false);
+    database = new RlDatabase.Dir(folder).add(table);
+    assertTrue(database.isSchemaChanged());
+    try (RlSearcher<RlValues> searcher = database.createSearcher(table)) {
+      assertEquals(0, searcher.search(new RlQuery.Match("text", "東京都 港区3")).size());
+    }
+    
+    assertEquals(10, (int)database.reindexIfSchemaChanged().get());
+    assertFalse(database.isSchemaChanged());
+    try (RlSearcher<RlValues> searcher = database.createSearcher(table)) {
+      assertEquals(10, searcher.getAllByPk().size());
+      assertEquals(1, searcher.search(new RlQuery.Match("text", "東京都 港区3")).size());
+    }
+    assertEquals(0, (int)database.reindexIfSchemaChanged().get());
+    database.close();
+    
+    // 開きなおしても変更なしとされる
+    database = new RlDatabase.Dir(folder).add(createTable(false));
+    assertFalse(database.isSchemaChanged());
+    database.close();
+  }
+  
+  @Test
+  public void レコードを与えての再インデックス() throws Exception {
+    RlDatabase database = new RlDatabase.Ram().add(Bar.class);
+    try {
+      database.reindex();
+      fail();
+    } catch (RlException.Usage ex) {}
+    
+    List<Bar> list = new ArrayList<>();
+    for (int i = 0; i < 5; i++) list.add(new Bar("" + i, "text" + i));
+    assertEquals(5, (int)database.reindex(list).get());
+    try (RlSearcher<Bar> searcher = database.createSearcher(Bar.class)) {
+      assertEquals(5, searcher.getAllByPk().size());
+    }
+    database.close();
+  }
+
+  @Test
+  public void 自由形式テーブルのフィールド追加() throws Exception {
+    File folder = tempDir.resolve("db").toFile();
+    RlAnyTable original = createTable(true);
+    RlDatabase database = new RlDatabase.Dir(folder).add(original);
+    try (RlWriter writer = database.createWriter()) {
+      writer.write(original, values("1", "東京都"));
+    }
+    database.close();
+    
+    // フィールドを追加するとテーブル名称は変わるが、変更として検出される
+    RlAnyTable added = new RlAnyTable(
+      new RlField.Builder<>(String.class).setName("id").setPk(true).build(),
+      new RlField.Builder<>(String.class).setName("text").setStore(true).build(),
+      new RlField.Builder<>(String.class).setName("note").setStore(true).build()
+    );
+    assertNotEquals(original.getTableName(), added.getTableName());
+    database = new RlDatabase.Dir(folder).add(added);
+    assertTrue(database.isSchemaChanged());
+    assertEquals(1, (int)database.reindex().get());
+    assertFalse(database.isSchemaChanged());
+    database.close();
+  }
+  
+  @Test
+  public void 同時の再インデックスは拒否() throws Exception {
+    RlDatabase database = new RlDatabase.Ram().add(Bar.class);
+    java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(1);
+    Iterable<Bar> waiting = ()-> {
+      try {
+        latch.await();
+      } catch (InterruptedException ex) {}
+      return Collections.<Bar>emptyIterator();
+    };
+    java.util.concurrent.CompletableFuture<Integer> first = database.reindex(waiting);
+    try {
+      database.reindex(Collections.emptyList());
+      fail();
+    } catch (RlException.Usage ex) {}
+    latch.countDown();
+    assertEquals(0, (int)first.get());
+    
+    // 終了後は再度行うことができる
+    assertEquals(0, (int)database.reindex(Collections.emptyList()).get());
+    database.close();
+  }
+
+  static RlAnyTable createTable(boolean tokenized) {
+    return new RlAnyTable(
+      new RlField.Builder<>(String.class).setName("id").setPk(true).build(),
+      new RlField.Builder<>(String.class).setName("text").setStore(true).setTokenized(tokenized).build()
+    );
+  }
+  
+  static RlValues values(String id, String text) {
+    RlValues values = new RlValues();
+    values.put("id", id);
+    values.put("text", text);
+    return values;
+  }
+  
+  public static class Bar {
+    @RlFieldAttr(pk=true)
+    public String id;
+
+    public String text;
+
+    public Bar() {}
+    public Bar(String id, String text) {
+      this.id = id;
+      this.text = text;
+    }
+  }
+}
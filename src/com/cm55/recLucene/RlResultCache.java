@@ -0,0 +1,158 @@
+package com.cm55.recLucene;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.search.*;
+
+/**
+ * 検索結果のキャッシュ
+ * <p>
+ * テーブル、クエリ、ソート指定、検索結果最大数と、検索したインデックスリーダの組に対して、
+ * 検索結果のドキュメントID（{@link TopDocs}）を最大指定数まで保持する。最も使用されていないものから破棄される。
+ * </p>
+ * <p>
+ * インデックスリーダはリフレッシュのたびに新たなものになるため、同じクエリでも以前のリーダの結果が使用されることはない。
+ * 以前のリーダがクローズされると、その結果はキャッシュから削除される。
+ * </p>
+ * @author ysugimura
+ */
+public class RlResultCache {
+
+  /** 最大保持数 */
+  private final int maxSize;
+
+  /** 結果。アクセス順 */
+  private final LinkedHashMap<Key, TopDocs> map;
+
+  /** クローズ時の削除を登録済みのリーダ */
+  private final Set<IndexReader.CacheKey> listening = new HashSet<>();
+
+  /** キャッシュにあった回数 */
+  private final AtomicLong hitCount = new AtomicLong();
+
+  /** キャッシュになかった回数 */
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * 最大保持数を指定する
+   * @param maxSize 最大保持数
+   */
+  RlResultCache(int maxSize) {
+    if (maxSize < 1) throw new RlException.Usage("キャッシュサイズは1以上でなければなりません");
+    this.maxSize = maxSize;
+    map = new LinkedHashMap<Key, TopDocs>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Key, TopDocs> eldest) {
+        return size() > RlResultCache.this.maxSize;
+      }
+    };
+  }
+
+  /** 最大保持数を取得する */
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /** 現在の保持数を取得する */
+  public synchronized int size() {
+    return map.size();
+  }
+
+  /** キャッシュにあった回数を取得する */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** キャッシュになかった回数を取得する */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** すべての結果を破棄する */
+  public synchronized void clear() {
+    map.clear();
+  }
+
+  /**
+   * キャッシュされた結果を取得する
+   * @param reader 検索するインデックスリーダ
+   * @param table テーブル
+   * @param query クエリ
+   * @param sorts ソート指定。null可
+   * @param maxCount 検索結果最大数
+   * @return 結果。キャッシュされていない場合はnull
+   */
+  TopDocs get(IndexReader reader, RlTable<?> table, RlQuery query, RlSortFields sorts, int maxCount) {
+    IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+    if (helper == null) return null;
+    TopDocs hits;
+    synchronized (this) {
+      hits = map.get(new Key(helper.getKey(), table, query, sorts, maxCount));
+    }
+    (hits == null? missCount:hitCount).incrementAndGet();
+    return hits;
+  }
+
+  /**
+   * 結果をキャッシュする
+   * @param reader 検索したインデックスリーダ
+   * @param table テーブル
+   * @param query クエリ
+   * @param sorts ソート指定。null可
+   * @param maxCount 検索結果最大数
+   * @param hits 結果
+   */
+  void put(IndexReader reader, RlTable<?> table, RlQuery query, RlSortFields sorts, int maxCount, TopDocs hits) {
+    IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+    if (helper == null) return;
+    IndexReader.CacheKey readerKey = helper.getKey();
+    boolean register;
+    synchronized (this) {
+      map.put(new Key(readerKey, table, query, sorts, maxCount), hits);
+      register = listening.add(readerKey);
+    }
+    if (register) {
+      // リーダがクローズされたら、その結果を削除する
+      helper.addClosedListener(this::invalidate);
+    }
+  }
+
+  /** 指定リーダの結果を削除する */
+  private synchronized void invalidate(IndexReader.CacheKey readerKey) {
+    map.keySet().removeIf(key->key.readerKey == readerKey);
+    listening.remove(readerKey);
+  }
+
+  /** キャッシュのキー */
+  private static class Key {
+    final IndexReader.CacheKey readerKey;
+    final RlTable<?> table;
+    final RlQuery query;
+    final RlSortFields sorts;
+    final int maxCount;
+
+    Key(IndexReader.CacheKey readerKey, RlTable<?> table, RlQuery query, RlSortFields sorts, int maxCount) {
+      this.readerKey = readerKey;
+      this.table = table;
+      this.query = query;
+      this.sorts = sorts != null && sorts.rlSortFields.length == 0? null:sorts;
+      this.maxCount = maxCount;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key that = (Key)o;
+      return this.readerKey == that.readerKey && this.table == that.table && this.query.equals(that.query) &&
+          Objects.equals(this.sorts, that.sorts) && this.maxCount == that.maxCount;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(readerKey), System.identityHashCode(table), query, sorts, maxCount);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.cm55.recLucene;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+public class RlResultCacheTest {
+
+  RlDatabase database;
+  RlClassTable<Foo> table;
+
+  @Before
+  public void before() {
+    table = new RlClassTable<>(Foo.class);
+    database = new RlDatabase.Ram().add(table);
+    database.setResultCacheSize(2);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 10; i++) writer.write(new Foo("" + i, i % 2 == 0? "偶数":"奇数"));
+    }
+  }
+
+  @After
+  public void after() {
+    database.close();
+  }
+
+  @Test
+  public void リフレッシュまでキャッシュされる() {
+    RlResultCache cache = database.getResultCache();
+    try (RlSearcher<Foo> searcher = database.createSearcher(table)) {
+      assertEquals(5, searcher.search(new RlQuery.Word("text", "偶数")).size());
+      assertEquals(5, searcher.search(new RlQuery.Word("text", "偶数")).size());
+      assertEquals(1, cache.getHitCount());
+      assertEquals(1, cache.getMissCount());
+      
+      // 検索結果最大数が異なれば別の結果
+      searcher.setMaxCount(3);
+      assertEquals(3, searcher.search(new RlQuery.Word("text", "偶数")).size());
+      assertEquals(2, cache.getMissCount());
+      searcher.setMaxCount(Integer.MAX_VALUE / 2);
+      
+      // 書き込むと以前の結果は使用されない
+      try (RlWriter writer = database.createWriter()) {
+        writer.write(new Foo("10", "偶数"));
+      }
+      assertEquals(6, searcher.search(new RlQuery.Word("text", "偶数")).size());
+      assertEquals(3, cache.getMissCount());
+      assertEquals(6, searcher.searchPkSet(new RlQuery.Word("text", "偶数")).size());
+      assertEquals(2, cache.getHitCount());
+      
+      // 最大保持数を超えない
+      assertEquals(5, searcher.search(new RlQuery.Word("text", "奇数")).size());
+      assertTrue(cache.size() <= 2);
+    }
+  }
+  
+  @Test
+  public void キャッシュしない() {
+    database.setResultCacheSize(0);
+    assertNull(database.getResultCache());
+    try (RlSearcher<Foo> searcher = database.createSearcher(table)) {
+      assertEquals(5, searcher.search(new RlQuery.Word("text", "奇数")).size());
+    }
+  }
+
+  public static class Foo {
+    @RlFieldAttr(pk=true)
+    public String id;
+
+    public String text;
+
+    public Foo() {}
+    public Foo(String id, String text) {
+      this.id = id;
+      this.text = text;
+    }
+  }
+}
@@ -2,13 +2,27 @@ package com.cm55.recLucene;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
 
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
+import org.apache.lucene.util.Bits;
 
 /**
- * 
+ * テーブルに対するサーチャ
+ * <p>
+ * 検索メソッドの呼び出しごとに、サーチャーマネージャからLuceneのインデックスサーチャを取得し、終了時に解放する。
+ * サーチャ自体は状態を持たないため、一つのインスタンスを複数のスレッドから同時に使用することができる。
+ * 各呼び出しは、その時点でリフレッシュされている最新のインデックスを検索する。
+ * 複数のクエリを同じ時点のインデックスに対して検索するには、{@link #searchBatch(List)}を使用する。
+ * </p>
+ * <p>
+ * サーチャはデータベースのサーチャ用セマフォを一つ保持しており、{@link #close()}されるまで
+ * {@link RlDatabase#close()}等は待たされる。
+ * </p>
  * @author ysugimura
  *
  * @param <T> 検索対象のテーブルオブジェクトの型
@@ -18,28 +32,41 @@ public class RlSearcher<T> implements Closeable {
   /** 対象とするテーブル */
   protected RlTable<T> table;
 
-  /** サーチャーマネージャ */
-  private SearcherManager searcherManager;
+  /** ライタホルダ */
+  private RlWriterHolder writerHolder;
   
-  /** Luceneのインデックスサーチャ */
-  private IndexSearcher indexSearcher;
-
   /** 最大出力結果数。初期値は実質無制限 */
-  private int maxCount = Integer.MAX_VALUE / 2;
+  private volatile int maxCount = Integer.MAX_VALUE / 2;
+
+  /** ストリーム検索で一度に読み込むドキュメント数 */
+  private volatile int prefetchSize = 100;
+  
+  /** クローズされていないストリーム検索 */
+  private final Set<HitIterator> openIterators = Collections.newSetFromMap(new ConcurrentHashMap<>());
+  
+  /** 解放されていない保持したインデックス。ページ検索のカーソルが保持しているものを含む */
+  private final Set<Pinned> openPins = Collections.newSetFromMap(new ConcurrentHashMap<>());
+  
+  /** クローズ済み */
+  private volatile boolean closed;
 
   /** セマフォ保持オブジェクト */
   private RlSemaphore.Holder semHolder;
   
+  /** 更新可能フィールド。値はストアされず、DocValuesから取得する */
+  private RlField<?>[] updatableFields;
+  
   /**
    * 
    * @param table
-   * @param searcherManager
+   * @param writerHolder
    * @param ac
    */
-  RlSearcher(RlTable<T>table, SearcherManager searcherManager, RlSemaphore.Holder ac) {
+  RlSearcher(RlTable<T>table, RlWriterHolder writerHolder, RlSemaphore.Holder ac) {
     this.table = table;    
-    this.searcherManager = searcherManager;
+    this.writerHolder = writerHolder;
     this.semHolder = ac;
+    this.updatableFields = table.getFields().filter(f->f.isUpdatable()).toArray(RlField<?>[]::new);
   }
 
   
@@ -58,34 +85,77 @@ public class RlSearcher<T> implements Closeable {
     maxCount = value;
     return this;
   }
+
+  /** ストリーム検索で一度に読み込むドキュメント数を取得する */
+  public int getPrefetchSize() {
+    return prefetchSize;
+  }
+  
+  /** ストリーム検索で一度に読み込むドキュメント数を設定する。初期値は100 */
+  public RlSearcher<T> setPrefetchSize(int value) {
+    if (value < 1) throw new RlException.Usage("読み込み数は1以上でなければなりません");
+    prefetchSize = value;
+    return this;
+  }
   
-  /** クローズする */
+  /**
+   * 指定された世代が検索可能になるまで待つ。
+   * <p>
+   * {@link RlWriterOptions.Builder#setRefreshStaleSec(double, double)}によってバックグラウンドリフレッシュ
+   * を指定している場合、検索は最新の書き込みを反映しない。ある書き込みの結果を確実に検索したい場合には、
+   * {@link RlWriter#getGeneration()}で取得した世代を指定してこのメソッドを呼び出してから検索する。
+   * </p>
+   * @param generation 世代
+   * @return このサーチャ
+   */
+  public RlSearcher<T> awaitGeneration(long generation) {
+    writerHolder.waitForGeneration(generation);
+    return this;
+  }
+  
+  /** 
+   * クローズする。クローズされていないストリーム検索、保持したインデックス、ページ検索のカーソルも解放される。
+   * 複数回呼び出してもよい
+   */
   public void close() {
-    closeSearcher();
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+    }
+    new ArrayList<>(openIterators).forEach(HitIterator::close);
+    new ArrayList<>(openPins).forEach(Pinned::close);
     semHolder.release();
-    searcherManager = null;
   }
 
-  /** サーチャーをクローズする */
-  void closeSearcher() {
-    if (indexSearcher == null) return;
-    try {
-      searcherManager.release(indexSearcher);
-      indexSearcher = null;
-    } catch (Exception ex) {
-      throw new RlException(ex);
+  /**
+   * 一回の検索のあいだ保持されるインデックスサーチャ。
+   * サーチャーマネージャはその都度取得するため、インデックスが入れ替えられた場合には新たなものが使用される。
+   */
+  private class Lease implements Closeable {
+    final SearcherManager manager;
+    final IndexSearcher searcher;
+    
+    Lease() {
+      if (closed) throw new RlException.Usage("サーチャはクローズされています");
+      manager = writerHolder.acquireRefreshedManager();
+      try {
+        searcher = manager.acquire();
+      } catch (Exception ex) {
+        writerHolder.releaseManager(manager);
+        throw new RlException(ex);
+      }
+    }
+    
+    @Override
+    public void close() {
+      try {
+        manager.release(searcher);
+      } catch (IOException ex) {
+        throw new RlException.IO(ex);
+      } finally {
+        writerHolder.releaseManager(manager);
+      }
     }
-  }
-  
-  /** インデックス更新を確実にする */
-  void ensureUpdate() {
-    closeSearcher();
-    try {
-      searcherManager.maybeRefreshBlocking();
-      indexSearcher = searcherManager.acquire();
-    } catch (Exception ex) {
-      throw new RlException(ex);
-    }    
   }
   
   /////////////////////////////////////////////////////////////////
@@ -99,6 +169,65 @@ public class RlSearcher<T> implements Closeable {
     return search(query, new RlSortFields());
   }
 
+  /**
+   * クエリに一致するドキュメント数を取得する。
+   * ドキュメントの読み込みやオブジェクトへの変換を行わないため、{@code search(query).size()}よりもはるかに速い。
+   * 検索結果最大数は適用されない。
+   * @param query クエリ
+   * @return 一致するドキュメント数
+   */
+  public int count(RlQuery query) {
+    try {
+      Query luceneQuery = query.getLuceneQuery(table);
+      try (Lease lease = new Lease()) {
+        return lease.searcher.count(luceneQuery);
+      }
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    }
+  }
+  
+  /**
+   * クエリに一致するドキュメントが存在するかを調べる。
+   * 最初に一致したドキュメントで検索を打ち切る。
+   * @param query クエリ
+   * @return true:一致するドキュメントが存在する
+   */
+  public boolean exists(RlQuery query) {
+    try {
+      Query luceneQuery = query.getLuceneQuery(table);
+      ExistsCollector collector = new ExistsCollector();
+      try (Lease lease = new Lease()) {
+        lease.searcher.search(luceneQuery, collector);
+      }
+      return collector.found;
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    }
+  }
+  
+  /** 最初のヒットで検索を打ち切るコレクタ */
+  private static class ExistsCollector extends SimpleCollector {
+    boolean found;
+    
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+      // 見つかった後のセグメントは検索しない
+      if (found) throw new CollectionTerminatedException();
+    }
+    
+    @Override
+    public void collect(int doc) throws IOException {
+      found = true;
+      throw new CollectionTerminatedException();
+    }
+    
+    @Override
+    public boolean needsScores() {
+      return false;
+    }
+  }
+
   /**
    * 検索してプライマリキーセットを取得する
    */
@@ -118,20 +247,122 @@ public class RlSearcher<T> implements Closeable {
     return searchFieldSet(field, query);
   }
 
+  /**
+   * 検索してプライマリキーの配列を取得する。
+   * <p>
+   * プライマリキーが整数型のソート可能フィールド（{@link RlFieldAttr#sortable()}）でなければならない。
+   * 値はDocValuesから取得するため、ストアされたドキュメントの読み込みや文字列の変換、ボクシングを行わない。
+   * 大量のプライマリキーを取得する場合には{@link #searchPkSet(RlQuery)}よりもはるかに速い。
+   * </p>
+   * @param query クエリ
+   * @return 昇順にソートされたプライマリキーの配列
+   */
+  public long[] searchPkLongs(RlQuery query) {
+    RlField<?> field = table.getPkField();
+    if (field == null)
+      throw new RlException("プライマリキーフィールドがありません");
+    return searchFieldLongs(field, query);
+  }
+
+  /**
+   * 検索して指定フィールドの値の配列を取得する。
+   * フィールドは整数型のソート可能フィールドあるいは更新可能フィールドでなければならない。
+   * @param fieldName フィールド名
+   * @param query クエリ
+   * @return 昇順にソートされ、重複の除かれた値の配列。値の無いドキュメントは含まれない
+   */
+  public long[] searchFieldLongs(String fieldName, RlQuery query) {
+    RlField<?> field = table.getFieldByName(fieldName);
+    if (field == null)
+      throw new RlException("フィールドがありません：" + fieldName);
+    return searchFieldLongs(field, query);
+  }
+  
+  private long[] searchFieldLongs(RlField<?> field, RlQuery query) {
+    long[] values = collectLongs(field, query);
+    Arrays.sort(values);
+    int size = 0;
+    for (int i = 0; i < values.length; i++) {
+      if (size == 0 || values[size - 1] != values[i]) values[size++] = values[i];
+    }
+    return size == values.length? values:Arrays.copyOf(values, size);
+  }
+  
+  /** 一致するドキュメントの、フィールドの数値のDocValuesを取得する */
+  private long[] collectLongs(RlField<?> field, RlQuery query) {
+    if (!field.hasNumericDocValues()) {
+      throw new RlException.Usage("整数型のソート可能フィールドあるいは更新可能フィールドではありません：" + field.getName());
+    }
+    try {
+      Query luceneQuery = query.getLuceneQuery(table);
+      LongCollector collector = new LongCollector(field.getName(), maxCount);
+      try (Lease lease = new Lease()) {
+        lease.searcher.search(luceneQuery, collector);
+      }
+      return collector.toArray();
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    }
+  }
+  
+  /** 数値のDocValuesをプリミティブ配列に収集するコレクタ */
+  private static class LongCollector extends SimpleCollector {
+    private final String fieldName;
+    private final int maxCount;
+    private NumericDocValues docValues;
+    private long[] values = new long[64];
+    private int size;
+    
+    LongCollector(String fieldName, int maxCount) {
+      this.fieldName = fieldName;
+      this.maxCount = maxCount;
+    }
+    
+    @Override
+    protected void doSetNextReader(LeafReaderContext context) throws IOException {
+      if (size >= maxCount) throw new CollectionTerminatedException();
+      docValues = context.reader().getNumericDocValues(fieldName);
+    }
+    
+    @Override
+    public void collect(int doc) throws IOException {
+      if (docValues == null || !docValues.advanceExact(doc)) return;
+      if (size == values.length) values = Arrays.copyOf(values, size * 2);
+      values[size++] = docValues.longValue();
+      if (size >= maxCount) throw new CollectionTerminatedException();
+    }
+    
+    @Override
+    public boolean needsScores() {
+      return false;
+    }
+    
+    long[] toArray() {
+      return Arrays.copyOf(values, size);
+    }
+  }
+  
   private <P> Set<P> searchFieldSet(RlField<P> field, RlQuery query) {
-    if (!field.isStore()) {
+    
+    // 数値のDocValuesがあればそれを使用する。値の無いドキュメントは含まれない
+    if (field.hasNumericDocValues()) {
+      Set<P> set = new HashSet<P>();
+      for (long value: collectLongs(field, query)) set.add(field.fromLong(value));
+      return set;
+    }
+    
+    if (!field.isStore() && !field.isUpdatable()) {
       throw new RlException("フィールド値にストア指定がありません：" + field.getName());
     }
     /*
      * List<T>objectList = search(query); Set<P>set = new HashSet<P>(); for (T
      * object: objectList) { set.add(field.getValue(object)); }
      */
-    TopDocs hits = searchHits(query, null);
     Set<P> set = new HashSet<P>();
-
-    try {
+    try (Lease lease = new Lease()) {
+      TopDocs hits = searchHits(lease.searcher, query, null);
       for (ScoreDoc scoreDoc : hits.scoreDocs) {
-        Document doc = indexSearcher.doc(scoreDoc.doc);
+        Document doc = loadDocument(lease.searcher, scoreDoc.doc);
         // result.add(table.fromDocument(doc));
         String string = doc.get(field.getName());
         set.add(field.fromString(string));
@@ -143,13 +374,57 @@ public class RlSearcher<T> implements Closeable {
     return set;
   }
 
-  /** 検索する。ソート指定あり */
-  public List<T> search(RlQuery query, RlSortFields sorts) {
-    try {
-      TopDocs hits = searchHits(query, sorts);
+  /**
+   * 指定フィールドのみを読み込んで検索する。
+   * <p>
+   * ストアされたフィールドのうち指定されたものだけを復元し、すべて読み込んだ時点でドキュメントの読み込みを打ち切る。
+   * 結果オブジェクトの他のフィールドは、null（プリミティブ型の場合は初期値）になる。
+   * 一覧表示などで一部のフィールドしか使用しない場合に用いる。
+   * </p>
+   * @param query クエリ
+   * @param fieldNames 読み込むフィールド名。ストアされたフィールドあるいは更新可能フィールドでなければならない
+   * @return 検索結果オブジェクトリスト
+   */
+  public List<T> searchFields(RlQuery query, String...fieldNames) {
+    return searchFields(query, null, fieldNames);
+  }
+  
+  /**
+   * 指定フィールドのみを読み込んで検索する。ソート指定あり
+   * @param query クエリ
+   * @param sorts ソート指定
+   * @param fieldNames 読み込むフィールド名。ストアされたフィールドあるいは更新可能フィールドでなければならない
+   * @return 検索結果オブジェクトリスト
+   */
+  public List<T> searchFields(RlQuery query, RlSortFields sorts, String...fieldNames) {
+    Set<String> storedNames = new HashSet<>();
+    List<RlField<?>> dvFields = new ArrayList<>();
+    for (String fieldName: fieldNames) {
+      RlField<?> field = table.getFieldByName(fieldName);
+      if (field == null)
+        throw new RlException("フィールドがありません：" + fieldName);
+      if (field.isUpdatable()) {
+        dvFields.add(field);
+      } else if (field.isStore()) {
+        storedNames.add(fieldName);
+      } else {
+        throw new RlException("フィールド値にストア指定がありません：" + fieldName);
+      }
+    }
+    RlField<?>[] projectedUpdatables = dvFields.toArray(new RlField<?>[0]);
+    try (Lease lease = new Lease()) {
+      TopDocs hits = searchHits(lease.searcher, query, sorts);
       List<T> result = new ArrayList<T>();
       for (ScoreDoc scoreDoc : hits.scoreDocs) {
-        Document doc = indexSearcher.doc(scoreDoc.doc);
+        Document doc;
+        if (storedNames.isEmpty()) {
+          doc = new Document();
+        } else {
+          ProjectionVisitor visitor = new ProjectionVisitor(storedNames);
+          lease.searcher.doc(scoreDoc.doc, visitor);
+          doc = visitor.getDocument();
+        }
+        addDocValues(lease.searcher, doc, scoreDoc.doc, projectedUpdatables);
         result.add(table.fromDocument(doc));
       }
       return result;
@@ -157,17 +432,344 @@ public class RlSearcher<T> implements Closeable {
       throw new RlException.IO(ex);
     }
   }
+  
+  /** 指定フィールドのみを読み込み、すべて読み込んだら打ち切るビジター */
+  private static class ProjectionVisitor extends DocumentStoredFieldVisitor {
+    private int remaining;
+    
+    ProjectionVisitor(Set<String> fieldNames) {
+      super(fieldNames);
+      remaining = fieldNames.size();
+    }
+    
+    @Override
+    public Status needsField(FieldInfo fieldInfo) throws IOException {
+      if (remaining == 0) return Status.STOP;
+      Status status = super.needsField(fieldInfo);
+      if (status == Status.YES) remaining--;
+      return status;
+    }
+  }
+  
+  /** 検索する。ソート指定あり */
+  public List<T> search(RlQuery query, RlSortFields sorts) {
+    try (Lease lease = new Lease()) {
+      return getObjects(lease.searcher, searchHits(lease.searcher, query, sorts));
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    }
+  }
+
+  /**
+   * 複数のクエリを同じ時点のインデックスに対して検索する。
+   * <p>
+   * インデックスサーチャの取得と解放は一度だけ行われるため、{@link #search(RlQuery)}を繰り返す場合と異なり、
+   * すべての結果は同じ時点のインデックスのものになり、リフレッシュの確認も一度で済む。
+   * </p>
+   * @param queries クエリのリスト
+   * @return 検索結果オブジェクトリストのリスト。クエリと同じ順序
+   */
+  public List<List<T>> searchBatch(List<RlQuery> queries) {
+    try (Lease lease = new Lease()) {
+      List<List<T>> results = new ArrayList<>(queries.size());
+      for (RlQuery query: queries) {
+        results.add(getObjects(lease.searcher, searchHits(lease.searcher, query, null)));
+      }
+      return results;
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    }
+  }
+  
+  /**
+   * 複数のクエリを同じ時点のインデックスに対して、指定されたスレッドプールで並列に検索する。
+   * <p>
+   * {@link #searchBatch(List)}と同じく、すべての結果は同じ時点のインデックスのものになる。
+   * すべての検索が終了するまで戻らない。いずれかの検索で例外が発生した場合は、最初のクエリのものが投げられる。
+   * </p>
+   * <p>
+   * スレッドプールが途中で検索を受け付けなかった場合は、{@link RlException.Rejected}を投げる。
+   * その場合も、既に受け付けられた検索の終了（まだ開始していないものは何もせずに終了する）を待ってからサーチャを解放する。
+   * </p>
+   * @param queries クエリのリスト
+   * @param executor スレッドプール
+   * @return 検索結果オブジェクトリストのリスト。クエリと同じ順序
+   */
+  public List<List<T>> searchBatch(List<RlQuery> queries, ExecutorService executor) {
+    try (Lease lease = new Lease()) {
+      List<Future<List<T>>> futures = new ArrayList<>(queries.size());
+      AtomicBoolean aborted = new AtomicBoolean();
+      RuntimeException error = null;
+      try {
+        for (RlQuery query: queries) {
+          futures.add(executor.submit(()-> {
+            if (aborted.get()) return null;
+            return getObjects(lease.searcher, searchHits(lease.searcher, query, null));
+          }));
+        }
+      } catch (RejectedExecutionException ex) {
+        // 受け付けられたもののうち、まだ開始していないものは何もしない
+        aborted.set(true);
+        error = new RlException.Rejected(ex);
+      }
+      
+      // 例外があっても、サーチャを解放する前にすべての終了を待つ
+      List<List<T>> results = new ArrayList<>(queries.size());
+      boolean interrupted = false;
+      for (Future<List<T>> future: futures) {
+        try {
+          while (true) {
+            try {
+              results.add(future.get());
+              break;
+            } catch (InterruptedException ex) {
+              interrupted = true;
+            }
+          }
+        } catch (ExecutionException ex) {
+          if (error != null) continue;
+          Throwable cause = ex.getCause();
+          if (cause instanceof RuntimeException) error = (RuntimeException)cause;
+          else if (cause instanceof IOException) error = new RlException.IO((IOException)cause);
+          else error = new RlException(cause);
+        }
+      }
+      if (interrupted) Thread.currentThread().interrupt();
+      if (error != null) throw error;
+      return results;
+    }
+  }
 
-  private TopDocs searchHits(RlQuery query, RlSortFields sorts) {
+  /**
+   * ページ単位で検索する。
+   * <p>
+   * {@link #search(RlQuery, RlSortFields)}はすべてのヒットを返すが、こちらは指定数のみを返す。
+   * 次のページを取得するには、結果の{@link Page#getCursor()}を指定して再度呼び出す。
+   * {@link IndexSearcher#searchAfter(ScoreDoc, Query, int)}によって前ページの最後のヒットの次から検索するため、
+   * 深いページであっても先頭ページと同じコストになる。検索結果最大数の設定は適用されない。
+   * </p>
+   * <p>
+   * 先頭ページの検索時のインデックスは{@link #pin()}と同様に保持され、以降のページはカーソルを通じて同じインデックスを検索する。
+   * このため、ページの間に書き込みやマージがあっても、結果の重複や欠落は起こらない（その書き込みは反映されない）。
+   * 保持したインデックスは、最後のページを返した時点、カーソルを{@link RlCursor#close()}した時点、
+   * あるいはこのサーチャをclose()した時点で解放される。
+   * </p>
+   * @param query クエリ
+   * @param sorts ソート指定。nullの場合はスコア順
+   * @param pageSize ページのサイズ
+   * @param after 前ページのカーソル。先頭ページの場合はnull
+   * @return 検索結果のページ
+   */
+  public Page<T> searchPage(RlQuery query, RlSortFields sorts, int pageSize, RlCursor after) {
+    if (pageSize < 1) throw new RlException.Usage("ページサイズは1以上でなければなりません");
+    boolean sorted = sorts != null && sorts.rlSortFields.length > 0;
+    if (after != null && after.sorted != sorted) {
+      throw new RlException.Usage("カーソルのソート指定が一致しません");
+    }
+    if (after != null && after.pinned.getSearcher() != this) {
+      throw new RlException.Usage("他のサーチャのカーソルです");
+    }
+    Query luceneQuery = query.getLuceneQuery(table);
+    @SuppressWarnings("unchecked")
+    Pinned pinned = after == null? pin():(Pinned)after.pinned;
+    boolean last = true;
+    try {
+      synchronized (pinned) {
+        IndexSearcher indexSearcher = pinned.getIndexSearcher();
+        ScoreDoc afterDoc = after == null? null:after.after;
+        TopDocs hits;
+        if (sorted) {
+          hits = indexSearcher.searchAfter(afterDoc, luceneQuery, pageSize, sorts.getSort());
+        } else {
+          hits = indexSearcher.searchAfter(afterDoc, luceneQuery, pageSize);
+        }
+        List<T> list = getObjects(indexSearcher, hits);
+        long position = (after == null? 0:after.position) + hits.scoreDocs.length;
+        RlCursor cursor = null;
+        if (hits.scoreDocs.length > 0 && position < hits.totalHits) {
+          cursor = new RlCursor(pinned, hits.scoreDocs[hits.scoreDocs.length - 1], sorted, position);
+          last = false;
+        }
+        return new Page<T>(list, cursor, hits.totalHits);
+      }
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    } finally {
+      // 最後のページの場合、あるいは例外の場合は保持したインデックスを解放する
+      if (last) pinned.close();
+    }
+  }
+
+  /**
+   * ページ検索の結果
+   * @param <T> 検索対象のテーブルオブジェクトの型
+   */
+  public static class Page<T> {
+    private final List<T> list;
+    private final RlCursor cursor;
+    private final long totalHits;
+    
+    Page(List<T> list, RlCursor cursor, long totalHits) {
+      this.list = list;
+      this.cursor = cursor;
+      this.totalHits = totalHits;
+    }
+    
+    /** このページのオブジェクトリストを取得する */
+    public List<T> getList() {
+      return list;
+    }
+    
+    /** 次のページを取得するためのカーソルを取得する。最後のページの場合はnull */
+    public RlCursor getCursor() {
+      return cursor;
+    }
+    
+    /** 次のページがあるか */
+    public boolean hasNext() {
+      return cursor != null;
+    }
+    
+    /** クエリに一致する全ヒット数を取得する */
+    public long getTotalHits() {
+      return totalHits;
+    }
+  }
+  
+  /**
+   * 検索結果をストリームとして取得する。
+   * <p>
+   * {@link #search(RlQuery)}はすべての結果をリストとして作成するが、こちらは一致するドキュメントIDを順にたどり、
+   * 消費されるにつれて{@link #setPrefetchSize(int)}件ずつドキュメントを読み込む。
+   * このため、大量の結果を書き出す場合でも、結果全体を保持するメモリは必要ない。
+   * 順序はインデックス中のドキュメント順であり、スコアやソート指定、検索結果最大数は適用されない。
+   * </p>
+   * <p>
+   * ストリームはクローズされるまで検索開始時のインデックスを保持する。最後まで消費されると自動的にクローズされるが、
+   * 途中で止める場合にはtry-with-resourcesなどで必ずクローズすること。このサーチャをクローズした場合にもクローズされる。
+   * </p>
+   * @param query クエリ
+   * @return 検索結果オブジェクトのストリーム
+   */
+  public Stream<T> stream(RlQuery query) {
+    HitIterator iterator = new HitIterator(query.getLuceneQuery(table));
+    openIterators.add(iterator);
+    return StreamSupport.stream(
+      Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false
+    ).onClose(iterator::close);
+  }
+  
+  /**
+   * ストリーム検索の反復子。
+   * 独自にサーチャーマネージャとインデックスサーチャを取得し、セグメントごとにクエリに一致するドキュメントをたどる。
+   */
+  private class HitIterator implements Iterator<T> {
+    
+    private Lease lease;
+    private Weight weight;
+    private List<LeafReaderContext> leaves;
+    
+    /** 現在のセグメント */
+    private int leafIndex = -1;
+    private LeafReader reader;
+    private Bits liveDocs;
+    private DocIdSetIterator docs;
+    
+    /** 読み込み済みのオブジェクト */
+    private final ArrayDeque<T> batch = new ArrayDeque<>();
+    
+    HitIterator(Query query) {
+      lease = new Lease();
+      try {
+        weight = lease.searcher.createNormalizedWeight(query, false);
+        leaves = lease.searcher.getIndexReader().leaves();
+      } catch (IOException ex) {
+        close();
+        throw new RlException.IO(ex);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (batch.isEmpty() && lease != null) fill();
+      return !batch.isEmpty();
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      return batch.poll();
+    }
+    
+    /** 次のドキュメントを読み込む。最後まで読み込んだらクローズする */
+    private void fill() {
+      try {
+        while (batch.size() < prefetchSize) {
+          int docId = nextDoc();
+          if (docId == DocIdSetIterator.NO_MORE_DOCS) {
+            close();
+            return;
+          }
+          Document doc = reader.document(docId);
+          addDocValues(doc, reader, docId, updatableFields);
+          batch.add(table.fromDocument(doc));
+        }
+      } catch (IOException ex) {
+        close();
+        throw new RlException.IO(ex);
+      }
+    }
+    
+    /** 削除されていない次の一致ドキュメントのセグメント中のIDを取得する */
+    private int nextDoc() throws IOException {
+      while (true) {
+        if (docs != null) {
+          int docId = docs.nextDoc();
+          if (docId != DocIdSetIterator.NO_MORE_DOCS) {
+            if (liveDocs == null || liveDocs.get(docId)) return docId;
+            continue;
+          }
+          docs = null;
+        }
+        if (++leafIndex >= leaves.size()) return DocIdSetIterator.NO_MORE_DOCS;
+        LeafReaderContext leaf = leaves.get(leafIndex);
+        Scorer scorer = weight.scorer(leaf);
+        if (scorer == null) continue;
+        reader = leaf.reader();
+        liveDocs = reader.getLiveDocs();
+        docs = scorer.iterator();
+      }
+    }
+    
+    /** インデックスサーチャとサーチャーマネージャを解放する。複数回呼び出してもよい */
+    synchronized void close() {
+      if (lease == null) return;
+      openIterators.remove(this);
+      try {
+        lease.close();
+      } finally {
+        lease = null;
+        docs = null;
+      }
+    }
+  }
+  
+  private TopDocs searchHits(IndexSearcher indexSearcher, RlQuery query, RlSortFields sorts) {
+    int maxCount = this.maxCount;
+    RlResultCache cache = writerHolder.getResultCache();
+    if (cache != null) {
+      TopDocs hits = cache.get(indexSearcher.getIndexReader(), table, query, sorts, maxCount);
+      if (hits != null) return hits;
+    }
     try {
       TopDocs hits;
       Query luceneQuery = query.getLuceneQuery(table);
-      ensureUpdate();
       if (sorts == null || sorts.rlSortFields.length == 0) {
         hits = indexSearcher.search(luceneQuery, maxCount);        
       } else {
         hits = indexSearcher.search(luceneQuery, maxCount, sorts.getSort());
       }
+      if (cache != null) cache.put(indexSearcher.getIndexReader(), table, query, sorts, maxCount, hits);
       return hits;
 
     } catch (IOException ex) {
@@ -193,22 +795,161 @@ public class RlSearcher<T> implements Closeable {
     if (field.isTokenized()) {
       throw new RlException("トークン化フィールドは指定できません");
     }
-    try {
-      Term pkWildTerm = new Term(field.getName(), "*");
-      ensureUpdate();
-      TopDocs hits = indexSearcher.search(new WildcardQuery(pkWildTerm), maxCount);
-      return getObjects(hits);
+    Query query;
+    if (field.isUpdatable()) {
+      query = new DocValuesFieldExistsQuery(field.getName());
+    } else {
+      query = new WildcardQuery(new Term(field.getName(), "*"));
+    }
+    try (Lease lease = new Lease()) {
+      TopDocs hits = lease.searcher.search(query, maxCount);
+      return getObjects(lease.searcher, hits);
     } catch (IOException ex) {
       throw new RlException.IO(ex);
     }
   }
 
+  /**
+   * ヒットしたドキュメントをオブジェクトとして取得する。
+   * ドキュメントIDは、呼び出し時点のインデックスのものとして扱われる。
+   * @deprecated 検索の後にリフレッシュやマージがあると、ドキュメントIDが別のドキュメントを指すため、
+   * 誤ったレコードが返される。検索と取得を分けて行う場合は、{@link #pin()}で同じ時点のインデックスを
+   * 保持し、{@link Pinned#getObjects(TopDocs)}を使用すること。
+   */
+  @Deprecated
   public List<T> getObjects(TopDocs hits) throws IOException {
+    try (Lease lease = new Lease()) {
+      return getObjects(lease.searcher, hits);
+    }
+  }
+  
+  /**
+   * 現在のインデックスを保持する。
+   * <p>
+   * 返されたオブジェクトをclose()するまで、その検索と取得はすべて同じ時点のインデックスに対して行われる。
+   * 検索結果のドキュメントIDを保持しておき、後でレコードを取得する場合に使用する。
+   * 保持しているあいだは以前のインデックスのファイルが解放されないため、必ずclose()すること。
+   * </p>
+   * @return 保持したインデックス
+   */
+  public Pinned pin() {
+    return new Pinned();
+  }
+  
+  /**
+   * {@link #pin()}によって保持された、ある時点のインデックス
+   */
+  public class Pinned implements Closeable {
+    
+    private final Lease lease = new Lease();
+    
+    private boolean released;
+    
+    private Pinned() {
+      openPins.add(this);
+    }
+    
+    /** これを作成したサーチャを取得する */
+    RlSearcher<T> getSearcher() {
+      return RlSearcher.this;
+    }
+    
+    /** 保持したインデックスサーチャを取得する */
+    synchronized IndexSearcher getIndexSearcher() {
+      if (released) throw new RlException.Usage("保持したインデックスは解放されています");
+      return lease.searcher;
+    }
+    
+    /**
+     * 検索し、ヒットしたドキュメントIDを返す
+     * @param query クエリ
+     * @param sorts ソート指定。null可
+     * @return ヒットしたドキュメント
+     */
+    public TopDocs searchHits(RlQuery query, RlSortFields sorts) {
+      return RlSearcher.this.searchHits(getIndexSearcher(), query, sorts);
+    }
+    
+    /**
+     * {@link #searchHits(RlQuery, RlSortFields)}でヒットしたドキュメントをオブジェクトとして取得する
+     * @param hits ヒットしたドキュメント
+     * @return オブジェクトリスト
+     */
+    public List<T> getObjects(TopDocs hits) {
+      try {
+        return RlSearcher.this.getObjects(getIndexSearcher(), hits);
+      } catch (IOException ex) {
+        throw new RlException.IO(ex);
+      }
+    }
+    
+    /** 保持したインデックスを解放する。複数回呼び出してもよい */
+    @Override
+    public synchronized void close() {
+      if (released) return;
+      released = true;
+      openPins.remove(this);
+      lease.close();
+    }
+  }
+  
+  private List<T> getObjects(IndexSearcher indexSearcher, TopDocs hits) throws IOException {
     List<T> result = new ArrayList<T>();
     for (ScoreDoc scoreDoc : hits.scoreDocs) {
-      Document doc = indexSearcher.doc(scoreDoc.doc);
+      Document doc = loadDocument(indexSearcher, scoreDoc.doc);
       result.add(table.fromDocument(doc));
     }
     return result;
   }
+  
+  /**
+   * ドキュメントを読み込む。
+   * <p>
+   * 更新可能フィールドの値はストアされていないため、DocValuesから取得し、ストアされた値と同じ形式で
+   * ドキュメントに追加する。
+   * </p>
+   * @param indexSearcher インデックスサーチャ
+   * @param docId ドキュメントID
+   * @return ドキュメント
+   * @throws IOException
+   */
+  private Document loadDocument(IndexSearcher indexSearcher, int docId) throws IOException {
+    Document doc = indexSearcher.doc(docId);
+    addDocValues(indexSearcher, doc, docId, updatableFields);
+    return doc;
+  }
+  
+  /** 
+   * 指定された更新可能フィールドの値をDocValuesから取得してドキュメントに追加する
+   * @param indexSearcher インデックスサーチャ
+   * @param doc ドキュメント
+   * @param docId ドキュメントID
+   * @param fields 更新可能フィールド
+   */
+  private void addDocValues(IndexSearcher indexSearcher, Document doc, int docId, RlField<?>[] fields) 
+      throws IOException {
+    if (fields.length == 0) return;
+    List<LeafReaderContext> leaves = indexSearcher.getIndexReader().leaves();
+    LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+    addDocValues(doc, leaf.reader(), docId - leaf.docBase, fields);
+  }
+  
+  /**
+   * 更新可能フィールドの値をDocValuesから取得し、ストアされた値と同じ形式でドキュメントに追加する
+   * @param doc ドキュメント
+   * @param reader ドキュメントを含むリーダ
+   * @param docId リーダ中のドキュメントID
+   * @param updatableFields 更新可能フィールド
+   * @throws IOException
+   */
+  @SuppressWarnings("unchecked")
+  static void addDocValues(Document doc, LeafReader reader, int docId, RlField<?>[] updatableFields) 
+      throws IOException {
+    for (RlField<?> field: updatableFields) {
+      NumericDocValues values = reader.getNumericDocValues(field.getName());
+      if (values == null || !values.advanceExact(docId)) continue;
+      RlField<Object> f = (RlField<Object>)field;
+      doc.add(new StoredField(field.getName(), f.toString(f.fromLong(values.longValue()))));
+    }
+  }
 }
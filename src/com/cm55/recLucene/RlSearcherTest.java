@@ -50,6 +50,405 @@ public class RlSearcherTest {
     }
   }
 
+
+  @Test
+  public void 世代待ち() {
+    RlDatabase database = new RlDatabase.Ram().add(BookData.class);
+    database.setWriterOptions(new RlWriterOptions.Builder().setRefreshStaleSec(0.001, 60).build());
+    
+    RlSearcher<BookData> searcher = database.createSearcher(BookData.class);
+    assertEquals(0, searcher.searchPkSet(new RlQuery.Match("id",  1L)).size());
+    
+    RlWriter writer = database.createWriter();
+    writer.write(BOOK_DATA[0]);
+    long generation = writer.getGeneration();
+    writer.close();
+
+    // バックグラウンドリフレッシュ前は検索されない
+    assertEquals(0, searcher.searchPkSet(new RlQuery.Match("id",  1L)).size());
+    
+    // 世代を待てば検索される
+    assertEquals(1, searcher.awaitGeneration(generation).searchPkSet(new RlQuery.Match("id",  1L)).size());
+    searcher.close();
+    database.close();
+  }
+  
+  @Test
+  public void 件数と存在() {
+    RlDatabase database = new RlDatabase.Ram().add(Item.class);
+    RlSearcher<Item> searcher = database.createSearcher(Item.class);
+    assertEquals(0, searcher.count(new RlQuery.Word("desc", "偶数")));
+    assertFalse(searcher.exists(new RlQuery.Word("desc", "偶数")));
+    
+    // 複数のセグメントに分ける
+    for (int segment = 0; segment < 3; segment++) {
+      try (RlWriter writer = database.createWriter()) {
+        for (int i = 0; i < 10; i++) writer.write(new Item(segment + "-" + i, i % 2 == 0? "偶数":"奇数"));
+      }
+    }
+    try (RlWriter writer = database.createWriter()) {
+      writer.delete("id", "0-0");
+    }
+    assertEquals(14, searcher.count(new RlQuery.Word("desc", "偶数")));
+    assertTrue(searcher.exists(new RlQuery.Word("desc", "偶数")));
+    assertTrue(searcher.exists(new RlQuery.Match("id", "2-9")));
+    assertFalse(searcher.exists(new RlQuery.Match("id", "0-0")));
+    searcher.close();
+    database.close();
+  }
+  
+  @Test
+  public void DocValuesからのプライマリキー取得() {
+    RlDatabase database = new RlDatabase.Ram().add(LongItem.class);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 999; i >= 0; i--) writer.write(new LongItem(i * 10, i % 2 == 0? "偶数":"奇数"));
+      writer.delete("id", 0L);
+    }
+    try (RlSearcher<LongItem> searcher = database.createSearcher(LongItem.class)) {
+      long[] pks = searcher.searchPkLongs(new RlQuery.Word("desc", "偶数"));
+      assertEquals(499, pks.length);
+      for (int i = 0; i < pks.length; i++) assertEquals((i + 1) * 20L, pks[i]);
+      
+      Set<Long>pkSet = searcher.searchPkSet(new RlQuery.Word("desc", "偶数"));
+      assertEquals(499, pkSet.size());
+      assertTrue(pkSet.contains(9980L));
+      
+      searcher.setMaxCount(10);
+      assertEquals(10, searcher.searchPkLongs(new RlQuery.Word("desc", "奇数")).length);
+    }
+    database.close();
+    
+    // 文字列のプライマリキーは取得できない
+    database = new RlDatabase.Ram().add(Item.class);
+    try (RlSearcher<Item> searcher = database.createSearcher(Item.class)) {
+      searcher.searchPkLongs(new RlQuery.Word("desc", "偶数"));
+      fail();
+    } catch (RlException.Usage ex) {}
+    database.close();
+  }
+  
+  @Test
+  public void フィールドを指定しての検索() {
+    RlDatabase database = new RlDatabase.Ram().add(BookData.class);
+    try (RlWriter writer = database.createWriter()) {
+      for (BookData bookData: BOOK_DATA) writer.write(bookData);
+    }
+    try (RlSearcher<BookData> searcher = database.createSearcher(BookData.class)) {
+      
+      // ストアされていないプリミティブ型のフィールドは初期値になる
+      List<BookData> list = searcher.search(new RlQuery.Word("desc", "吾輩"));
+      assertEquals(4, list.size());
+      assertEquals(0, list.get(0).pages);
+      
+      // ソート指定のnullは、従来通りRlSortFieldsとして扱われる
+      assertEquals(4, searcher.search(new RlQuery.Word("desc", "吾輩"), null).size());
+      
+      list = searcher.searchFields(new RlQuery.Match("id", 1L), "id");
+      assertEquals(1, list.size());
+      assertEquals(1L, list.get(0).id);
+      assertNull(list.get(0).title);
+      
+      try {
+        searcher.searchFields(new RlQuery.Match("id", 1L), "title");
+        fail();
+      } catch (RlException ex) {}
+    }
+    database.close();
+  }
+  
+  @Test
+  public void 複数スレッドでの共有() throws Exception {
+    RlDatabase database = new RlDatabase.Ram().add(Item.class);
+    RlSearcher<Item> searcher = database.createSearcher(Item.class);
+    List<Thread> threads = new ArrayList<>();
+    List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+    for (int t = 0; t < 8; t++) {
+      threads.add(new Thread(()-> {
+        try {
+          int last = 0;
+          for (int i = 0; i < 200; i++) {
+            int count = searcher.search(new RlQuery.Word("desc", "説明")).size();
+            assertTrue(count >= last);
+            last = searcher.count(new RlQuery.Word("desc", "説明"));
+            assertTrue(last >= count);
+          }
+        } catch (Throwable th) {
+          errors.add(th);
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 200; i++) writer.write(new Item("" + i, "説明"));
+    }
+    for (Thread thread: threads) thread.join();
+    assertEquals(Collections.emptyList(), errors);
+    assertEquals(200, searcher.count(new RlQuery.Word("desc", "説明")));
+    
+    // クローズ後は使用できない
+    searcher.close();
+    searcher.close();
+    try {
+      searcher.count(new RlQuery.Word("desc", "説明"));
+      fail();
+    } catch (RlException.Usage ex) {}
+    database.close();
+  }
+  
+  @Test
+  public void セグメントの並列検索() throws Exception {
+    java.util.concurrent.ThreadPoolExecutor executor = 
+        (java.util.concurrent.ThreadPoolExecutor)java.util.concurrent.Executors.newFixedThreadPool(4);
+    RlDatabase database = new RlDatabase.Ram().add(Item.class);
+    database.setSearchExecutor(executor, 0);
+    assertSame(executor, database.getSearchExecutor());
+    
+    // ライタごとにセグメントが作成される
+    for (int s = 0; s < 3; s++) {
+      try (RlWriter writer = database.createWriter()) {
+        for (int i = 0; i < 20; i++) writer.write(new Item(s + "-" + i, "説明"));
+      }
+    }
+    try (RlSearcher<Item> searcher = database.createSearcher(Item.class)) {
+      assertEquals(60, searcher.search(new RlQuery.Word("desc", "説明")).size());
+      assertEquals(60, searcher.count(new RlQuery.Word("desc", "説明")));
+      assertTrue(executor.getTaskCount() > 0);
+      
+      // ドキュメント数が指定未満の場合は並列にしない
+      database.setSearchExecutor(executor, 1000);
+      try (RlWriter writer = database.createWriter()) {
+        writer.write(new Item("x", "説明"));
+      }
+      long tasks = executor.getTaskCount();
+      assertEquals(61, searcher.search(new RlQuery.Word("desc", "説明")).size());
+      assertEquals(tasks, executor.getTaskCount());
+    }
+    database.close();
+    executor.shutdown();
+  }
+  
+  @Test
+  public void 一括検索() {
+    RlDatabase database = new RlDatabase.Ram().add(Item.class);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 30; i++) writer.write(new Item("" + i, i % 3 == 0? "三の倍数":"その他"));
+    }
+    List<RlQuery> queries = Arrays.asList(
+      new RlQuery.Word("desc", "三の倍数"),
+      new RlQuery.Word("desc", "その他"),
+      new RlQuery.Word("desc", "なし"),
+      new RlQuery.Match("id", "5")
+    );
+    java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(2);
+    try (RlSearcher<Item> searcher = database.createSearcher(Item.class)) {
+      for (List<List<Item>> results: Arrays.asList(searcher.searchBatch(queries), searcher.searchBatch(queries, executor))) {
+        assertEquals(4, results.size());
+        assertEquals(10, results.get(0).size());
+        assertEquals(20, results.get(1).size());
+        assertEquals(0, results.get(2).size());
+        assertEquals("5", results.get(3).get(0).id);
+      }
+      
+      // 例外は呼び出し側に投げられる
+      try {
+        searcher.searchBatch(Arrays.asList(new RlQuery.Word("desc", "その他"), new RlQuery.Word("unknown", "x")), executor);
+        fail();
+      } catch (RlException ex) {}
+    }
+    executor.shutdown();
+    database.close();
+  }
+  
+  @Test
+  public void 一括検索の拒否() throws Exception {
+    RlDatabase database = new RlDatabase.Ram().add(Item.class);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 30; i++) writer.write(new Item("" + i, "説明"));
+    }
+    List<RlQuery> queries = Arrays.asList(
+      new RlQuery.Word("desc", "説明"), new RlQuery.Word("desc", "説明"), new RlQuery.Word("desc", "説明"));
+    
+    // 二つ目まで受け付け、それらの実行は遅れて開始するスレッドプール
+    java.util.concurrent.ThreadPoolExecutor executor = new java.util.concurrent.ThreadPoolExecutor(
+        2, 2, 0, java.util.concurrent.TimeUnit.SECONDS, new java.util.concurrent.LinkedBlockingQueue<>()) {
+      int count;
+      @Override
+      public void execute(Runnable command) {
+        if (++count > 2) throw new java.util.concurrent.RejectedExecutionException("full");
+        super.execute(()-> {
+          try {
+            Thread.sleep(200);
+          } catch (InterruptedException ex) {}
+          command.run();
+        });
+      }
+    };
+    try (RlSearcher<Item> searcher = database.createSearcher(Item.class)) {
+      long start = System.currentTimeMillis();
+      try {
+        searcher.searchBatch(queries, executor);
+        fail();
+      } catch (RlException.Rejected ex) {}
+      
+      // 受け付けられたものの終了を待ってから戻る
+      assertTrue(System.currentTimeMillis() - start >= 200);
+      
+      // シャットダウンされたスレッドプール
+      executor.shutdown();
+      try {
+        searcher.searchBatch(queries, executor);
+        fail();
+      } catch (RlException.Rejected ex) {}
+    }
+    database.close();
+  }
+  
+  @Test
+  public void インデックスの保持() {
+    RlDatabase database = new RlDatabase.Ram().add(Item.class);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 10; i++) writer.write(new Item("" + i, "説明"));
+    }
+    try (RlSearcher<Item> searcher = database.createSearcher(Item.class)) {
+      try (RlSearcher<Item>.Pinned pinned = searcher.pin()) {
+        org.apache.lucene.search.TopDocs hits = pinned.searchHits(new RlQuery.Match("id", "5"), null);
+        
+        // 検索後に削除・追加され、インデックスがリフレッシュされても、保持した時点のドキュメントが取得される
+        try (RlWriter writer = database.createWriter()) {
+          writer.delete("id", "5");
+          writer.deleteAll("id", Arrays.asList("0", "1", "2"));
+          writer.write(new Item("10", "追加"));
+        }
+        assertEquals(6, searcher.count(new RlQuery.Word("desc", "説明")));
+        List<Item> list = pinned.getObjects(hits);
+        assertEquals(1, list.size());
+        assertEquals("5", list.get(0).id);
+      }
+    }
+    database.close();
+  }
+  
+  @Test
+  public void ページ検索() {
+    RlDatabase database = new RlDatabase.Ram().add(Item.class);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 25; i++) writer.write(new Item("" + i, "説明"));
+    }
+    try (RlSearcher<Item> searcher = database.createSearcher(Item.class)) {
+      Set<String>ids = new HashSet<>();
+      RlCursor cursor = null;
+      int pages = 0;
+      do {
+        RlSearcher.Page<Item> page = searcher.searchPage(new RlQuery.Word("desc", "説明"), null, 10, cursor);
+        assertEquals(25, page.getTotalHits());
+        for (Item item: page.getList()) assertTrue(ids.add(item.id));
+        cursor = page.getCursor();
+        pages++;
+      } while (cursor != null);
+      assertEquals(3, pages);
+      assertEquals(25, ids.size());
+      
+      // 一致なし
+      RlSearcher.Page<Item> page = searcher.searchPage(new RlQuery.Word("desc", "なし"), null, 10, null);
+      assertEquals(0, page.getList().size());
+      assertFalse(page.hasNext());
+    }
+    database.close();
+  }
+  
+  @Test
+  public void 更新とマージをまたぐページ検索() throws Exception {
+    RlDatabase database = new RlDatabase.Ram().add(Item.class);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 30; i++) writer.write(new Item("" + i, "説明"));
+    }
+    try (RlSearcher<Item> searcher = database.createSearcher(Item.class)) {
+      List<String> ids = new ArrayList<>();
+      RlCursor cursor = null;
+      do {
+        RlSearcher.Page<Item> page = searcher.searchPage(new RlQuery.Word("desc", "説明"), null, 10, cursor);
+        assertEquals(30, page.getTotalHits());
+        page.getList().forEach(item->ids.add(item.id));
+        cursor = page.getCursor();
+        
+        // ページの間に先頭のドキュメントを削除し、追加してマージすると、ドキュメントIDがずれる
+        try (RlWriter writer = database.createWriter()) {
+          for (int i = 0; i < 5; i++) writer.delete("id", ids.get(ids.size() - 10 + i));
+          for (int i = 0; i < 5; i++) writer.write(new Item("new" + ids.size() + "-" + i, "説明"));
+        }
+        database.writerHolder.getIndexWriter().forceMerge(1);
+      } while (cursor != null);
+      
+      // 先頭ページの時点のドキュメントが、重複も欠落もなく返される
+      assertEquals(30, ids.size());
+      assertEquals(30, new HashSet<>(ids).size());
+      assertTrue(ids.stream().noneMatch(id->id.startsWith("new")));
+      assertEquals(30, searcher.count(new RlQuery.Word("desc", "説明")));
+    }
+    database.close();
+  }
+  
+  @Test
+  public void ソート指定ありのページ検索() throws Exception {
+    RlClassTable<LongItem> table = new RlClassTable<>(LongItem.class);
+    RlDatabase database = new RlDatabase.Ram().add(table);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 30; i++) writer.write(new LongItem(i, "説明"));
+    }
+    RlSortFields sorts = new RlSortFields(new RlSortField(table.getFieldByName("id"), true));
+    try (RlSearcher<LongItem> searcher = database.createSearcher(table)) {
+      List<Long> ids = new ArrayList<>();
+      RlCursor cursor = null;
+      do {
+        RlSearcher.Page<LongItem> page = searcher.searchPage(new RlQuery.Word("desc", "説明"), sorts, 7, cursor);
+        page.getList().forEach(item->ids.add(item.id));
+        cursor = page.getCursor();
+        try (RlWriter writer = database.createWriter()) {
+          writer.delete("id", 29L - ids.size());
+          writer.write(new LongItem(100 + ids.size(), "説明"));
+        }
+        database.writerHolder.getIndexWriter().forceMerge(1);
+      } while (cursor != null);
+      List<Long> expected = new ArrayList<>();
+      for (long i = 29; i >= 0; i--) expected.add(i);
+      assertEquals(expected, ids);
+      
+      // クローズしたカーソルは使用できない
+      RlSearcher.Page<LongItem> page = searcher.searchPage(new RlQuery.Word("desc", "説明"), sorts, 7, null);
+      page.getCursor().close();
+      try {
+        searcher.searchPage(new RlQuery.Word("desc", "説明"), sorts, 7, page.getCursor());
+        fail();
+      } catch (RlException.Usage ex) {}
+    }
+    database.close();
+  }
+  
+  @Test
+  public void ストリーム検索() {
+    RlDatabase database = new RlDatabase.Ram().add(Item.class);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 250; i++) writer.write(new Item("" + i, i % 2 == 0? "偶数":"奇数"));
+      writer.delete("id", "0");
+    }
+    RlSearcher<Item> searcher = database.createSearcher(Item.class).setPrefetchSize(16);
+    try (java.util.stream.Stream<Item> stream = searcher.stream(new RlQuery.Word("desc", "偶数"))) {
+      Set<String>ids = new HashSet<>();
+      stream.forEach(item->assertTrue(ids.add(item.id)));
+      assertEquals(124, ids.size());
+    }
+    
+    // 途中で止める
+    try (java.util.stream.Stream<Item> stream = searcher.stream(new RlQuery.Word("desc", "奇数"))) {
+      assertEquals(10, stream.limit(10).count());
+    }
+    
+    // クローズしていないストリームはサーチャと共にクローズされる
+    Iterator<Item> iterator = searcher.stream(new RlQuery.Word("desc", "奇数")).iterator();
+    assertTrue(iterator.hasNext());
+    searcher.close();
+    database.close();
+  }
   
   public static final BookData[] BOOK_DATA = new BookData[] {
       new BookData(1, "夏目漱石", "吾輩は猫である",
@@ -123,4 +522,29 @@ public class RlSearcherTest {
 
   }
 
+  public static class LongItem {
+    @RlFieldAttr(pk=true, sortable=true, converter=LongConv.class)
+    public long id;
+    
+    public String desc;
+    
+    public LongItem() {}
+    public LongItem(long id, String desc) {
+      this.id = id;
+      this.desc = desc;
+    }
+  }
+  
+  public static class Item {
+    @RlFieldAttr(pk=true)
+    public String id;
+    
+    public String desc;
+    
+    public Item() {}
+    public Item(String id, String desc) {
+      this.id = id;
+      this.desc = desc;
+    }
+  }
 }
@@ -13,8 +13,8 @@ class RlSemaphore {
   /** Javaのセマフォ */
   java.util.concurrent.Semaphore semaphore;
 
-  /** 最大許可数 */
-  private int permits;
+  /** 最大許可数。{@link #setPermits(Holder, int)}によって変更されることがある */
+  private volatile int permits;
 
   /**
    * 最大許可数を指定する
@@ -48,18 +48,29 @@ class RlSemaphore {
     return new Holder(semaphore, 1);
   }
 
+  /** 最大許可数を取得する */
+  int getPermits() {
+    return permits;
+  }
+  
   /**
    * 全取得する。取得するまで待つ
-   * 
+   * <p>
+   * 待機中に最大許可数が変更された場合に備え、一定時間ごとに最大許可数を確認しなおす。
+   * </p>
    * @return
    */
   Holder acquireAll() {
     try {
-      semaphore.acquire(permits);
+      while (true) {
+        int count = permits;
+        if (!semaphore.tryAcquire(count, 100, TimeUnit.MILLISECONDS)) continue;
+        if (count == permits) return new Holder(semaphore, count);
+        semaphore.release(count);
+      }
     } catch (InterruptedException ex) {
       throw new RlException(ex);
     }
-    return new Holder(semaphore, permits);
   }
 
   /**
@@ -68,10 +79,32 @@ class RlSemaphore {
    * @return
    */
   Holder tryAcquireAll() {
-    if (!semaphore.tryAcquire(permits)) {
+    int count = permits;
+    if (!semaphore.tryAcquire(count)) {
+      return null;
+    }
+    if (count != permits) {
+      semaphore.release(count);
       return null;
     }
-    return new Holder(semaphore, permits);
+    return new Holder(semaphore, count);
+  }
+  
+  /**
+   * 最大許可数を変更する。
+   * <p>
+   * {@link #acquireAll()}によって全許可を取得した状態で呼び出すこと。そのホルダが解放されると、
+   * 新たな最大許可数の許可が利用可能になる。
+   * </p>
+   * @param all {@link #acquireAll()}によって取得したホルダ
+   * @param newPermits 新たな最大許可数
+   */
+  synchronized void setPermits(Holder all, int newPermits) {
+    if (all.semaphore != semaphore || all.permits != permits) {
+      throw new RlException.Usage("全許可を取得していません");
+    }
+    all.permits = newPermits;
+    permits = newPermits;
   }
 
   /**
@@ -84,7 +117,7 @@ class RlSemaphore {
     private Semaphore semaphore;
 
     /** 許可数 */
-    private final int permits;
+    private int permits;
 
     private Holder(Semaphore semaphore, int permits) {
       this.semaphore = semaphore;
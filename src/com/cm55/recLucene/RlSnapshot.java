@@ -0,0 +1,95 @@
+package com.cm55.recLucene;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.*;
+import org.apache.lucene.util.*;
+
+/**
+ * インデックスのスナップショットをファイルシステム上のフォルダにコピーする。
+ * <p>
+ * ドキュメントを一つずつ書き込みなおすのではなく、あるコミットを構成するインデックスファイルを
+ * NIOのチャネルによってそのままコピーする。コピー先のフォルダは{@link RlDatabase.Ram#restoreFrom(Path)}
+ * あるいは{@link RlDatabase.Dir}でそのまま開くことができる。
+ * </p>
+ * @author ysugimura
+ */
+class RlSnapshot {
+
+  /** {@link Directory}がファイルシステム上にない場合の読み込みバッファサイズ */
+  private static final int BUFFER_SIZE = 1024 * 1024;
+
+  /**
+   * 指定されたコミットのファイルをフォルダにコピーする。
+   * コミットのセグメントファイルは最後にコピーされるため、途中で失敗した場合でも、
+   * 不完全なインデックスとして開かれることはない。
+   * @param directory コピー元ディレクトリ
+   * @param commit コピーするコミット
+   * @param target コピー先フォルダ。存在しなければ作成される。空でなければならない。
+   * @throws IOException
+   */
+  static void copy(Directory directory, IndexCommit commit, Path target) throws IOException {
+    Files.createDirectories(target);
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(target)) {
+      if (stream.iterator().hasNext()) {
+        throw new RlException.Usage("スナップショット先のフォルダが空ではありません：" + target);
+      }
+    }
+
+    // セグメントファイルを最後にする
+    String segmentsFileName = commit.getSegmentsFileName();
+    List<String> fileNames = new ArrayList<>(commit.getFileNames());
+    fileNames.remove(segmentsFileName);
+    fileNames.add(segmentsFileName);
+
+    Directory unwrapped = FilterDirectory.unwrap(directory);
+    for (String fileName: fileNames) {
+      Path targetFile = target.resolve(fileName);
+      if (unwrapped instanceof FSDirectory) {
+        copyFile(((FSDirectory)unwrapped).getDirectory().resolve(fileName), targetFile);
+      } else {
+        copyFile(directory, fileName, targetFile);
+      }
+    }
+    IOUtils.fsync(target, true);
+  }
+
+  /** ファイルシステム上のファイルをチャネル間転送によってコピーする */
+  private static void copyFile(Path source, Path target) throws IOException {
+    try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+        FileChannel out = open(target)) {
+      long size = in.size();
+      long position = 0;
+      while (position < size) {
+        position += in.transferTo(position, size - position, out);
+      }
+      out.force(true);
+    }
+  }
+
+  /** {@link RAMDirectory}等のファイルを、バッファを介してチャネルに書き込む */
+  private static void copyFile(Directory directory, String fileName, Path target) throws IOException {
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (IndexInput in = directory.openInput(fileName, IOContext.READONCE);
+        FileChannel out = open(target)) {
+      long remaining = in.length();
+      while (remaining > 0) {
+        int length = (int)Math.min(buffer.length, remaining);
+        in.readBytes(buffer, 0, length);
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+        while (byteBuffer.hasRemaining()) out.write(byteBuffer);
+        remaining -= length;
+      }
+      out.force(true);
+    }
+  }
+
+  private static FileChannel open(Path target) throws IOException {
+    return FileChannel.open(target, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+  }
+}
@@ -0,0 +1,87 @@
+package com.cm55.recLucene;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.*;
+
+public class RlSnapshotTest {
+
+  Path tempDir;
+
+  @Before
+  public void before() throws IOException {
+    tempDir = Files.createTempDirectory("rlSnapshot");
+  }
+
+  @After
+  public void after() throws IOException {
+    try (java.util.stream.Stream<Path> paths = Files.walk(tempDir)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Test
+  public void RAMデータベースのスナップショットと復元() {
+    RlDatabase database = new RlDatabase.Ram().add(Foo.class);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 100; i++) writer.write(new Foo("" + i, "test" + i));
+    }
+    Path snapshot = tempDir.resolve("snapshot");
+    database.snapshotTo(snapshot);
+
+    // 空でないフォルダには作成できない
+    try {
+      database.snapshotTo(snapshot);
+      fail();
+    } catch (RlException.Usage ex) {}
+
+    // スナップショット後の書き込みは含まれない
+    try (RlWriter writer = database.createWriter()) {
+      writer.write(new Foo("100", "test100"));
+    }
+    database.close();
+
+    for (boolean mmap: new boolean[] { false, true }) {
+      RlDatabase restored = RlDatabase.Ram.restoreFrom(snapshot, mmap).add(Foo.class);
+      try (RlSearcher<Foo> searcher = restored.createSearcher(Foo.class)) {
+        assertEquals(100, searcher.getAllByPk().size());
+        assertEquals(1, searcher.search(new RlQuery.Match("id", "12")).size());
+      }
+      restored.close();
+    }
+  }
+
+  @Test
+  public void ディレクトリデータベースのスナップショット() {
+    RlDatabase database = new RlDatabase.Dir(tempDir.resolve("db").toFile()).add(Foo.class);
+    try (RlWriter writer = database.createWriter()) {
+      for (int i = 0; i < 10; i++) writer.write(new Foo("" + i, "test" + i));
+    }
+    Path snapshot = tempDir.resolve("snapshot");
+    database.snapshotTo(snapshot);
+    database.close();
+
+    RlDatabase restored = RlDatabase.Ram.restoreFrom(snapshot).add(Foo.class);
+    try (RlSearcher<Foo> searcher = restored.createSearcher(Foo.class)) {
+      assertEquals(10, searcher.getAllByPk().size());
+    }
+    restored.close();
+  }
+
+  public static class Foo {
+    @RlFieldAttr(pk=true)
+    public String id;
+
+    public String text;
+
+    public Foo() {}
+    public Foo(String id, String text) {
+      this.id = id;
+      this.text = text;
+    }
+  }
+}
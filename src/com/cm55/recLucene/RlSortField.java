@@ -43,4 +43,17 @@ public class RlSortField {
   public boolean getDesc() {
     return desc;
   }
+  
+  /** 同一性チェック。フィールドは同一のオブジェクトでなければならない */
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof RlSortField)) return false;
+    RlSortField that = (RlSortField)o;
+    return this.field == that.field && this.desc == that.desc;
+  }
+  
+  @Override
+  public int hashCode() {
+    return System.identityHashCode(field) * 31 + (desc ? 1 : 0);
+  }
 }
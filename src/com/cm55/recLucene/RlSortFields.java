@@ -1,5 +1,7 @@
 package com.cm55.recLucene;
 
+import java.util.*;
+
 import org.apache.lucene.search.*;
 
 /**
@@ -21,8 +23,26 @@ public class RlSortFields {
   }
 
   
-  /** LuceneのSortオブジェクトを取得する */
+  /** 
+   * LuceneのSortオブジェクトを取得する。
+   * 各フィールドはソート可能（{@link RlFieldAttr#sortable()}あるいは{@link RlFieldAttr#updatable()}）でなければならない。
+   */
   public Sort getSort() {
-    throw new RlException("not supported yet");
+    SortField[] sortFields = new SortField[rlSortFields.length];
+    for (int i = 0; i < rlSortFields.length; i++) {
+      sortFields[i] = rlSortFields[i].field.getSortField(rlSortFields[i].desc);
+    }
+    return new Sort(sortFields);
+  }
+  
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof RlSortFields)) return false;
+    return Arrays.equals(this.rlSortFields, ((RlSortFields)o).rlSortFields);
+  }
+  
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(rlSortFields);
   }
 }
\ No newline at end of file
@@ -0,0 +1,125 @@
+package com.cm55.recLucene;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.stream.*;
+
+import org.junit.*;
+
+import com.cm55.recLucene.RlFieldConverter.*;
+
+public class RlSortFieldsTest {
+
+  RlDatabase database;
+  RlClassTable<Foo> table;
+  RlSearcher<Foo> searcher;
+
+  @Before
+  public void before() {
+    table = new RlClassTable<>(Foo.class);
+    database = new RlDatabase.Ram().add(table);
+    try (RlWriter writer = database.createWriter()) {
+      writer.write(new Foo("1", "さくら", 30, "b"));
+      writer.write(new Foo("2", "あおい", 5, "a"));
+      writer.write(new Foo("3", "カエデ", 100, "b"));
+      writer.write(new Foo("4", "いちょう", 5, "c"));
+    }
+    searcher = database.createSearcher(table);
+  }
+
+  @After
+  public void after() {
+    searcher.close();
+    database.close();
+  }
+
+  @Test
+  public void 数値のソート() {
+    assertEquals("2,4,1,3", ids(searcher.search(new RlQuery.Word("desc", "test"), sorts("score", false))));
+    assertEquals("3,1,2,4", ids(searcher.search(new RlQuery.Word("desc", "test"), 
+        new RlSortFields(sort("score", true), sort("id", false)))));
+  }
+
+  @Test
+  public void 文字列のソート() {
+    assertEquals("2,3,1,4", ids(searcher.search(new RlQuery.Word("desc", "test"), 
+        new RlSortFields(sort("group", false), sort("score", true)))));
+  }
+  
+  @Test
+  public void 照合順序によるソート() {
+    // 文字コード順では「カエデ」が最後になる
+    assertEquals("2,4,3,1", ids(searcher.search(new RlQuery.Word("desc", "test"), sorts("name", false))));
+  }
+  
+  @Test
+  public void ソートしたページ検索() {
+    RlSearcher.Page<Foo> page = searcher.searchPage(new RlQuery.Word("desc", "test"), sorts("score", true), 3, null);
+    assertEquals("3,1,2", ids(page.getList()));
+    page = searcher.searchPage(new RlQuery.Word("desc", "test"), sorts("score", true), 3, page.getCursor());
+    assertEquals("4", ids(page.getList()));
+    assertFalse(page.hasNext());
+  }
+  
+  @Test
+  public void フィールドを指定してのソート検索() {
+    List<Foo> list = searcher.searchFields(new RlQuery.Word("desc", "test"), sorts("score", true), "id");
+    assertEquals("3,1,2,4", ids(list));
+    
+    // ストアされていても指定しなければ読み込まれない
+    assertEquals(0, list.get(0).score);
+    list = searcher.searchFields(new RlQuery.Word("desc", "test"), sorts("score", true), "score");
+    assertNull(list.get(0).id);
+    assertEquals(100, list.get(0).score);
+  }
+  
+  @Test
+  public void ソート可能でないフィールド() {
+    try {
+      searcher.search(new RlQuery.Word("desc", "test"), sorts("desc", false));
+      fail();
+    } catch (RlException.Usage ex) {}
+    try {
+      new RlField.Builder<>(String.class).setName("text").setSortable(true).build();
+      fail();
+    } catch (RlException ex) {}
+  }
+  
+  RlSortField sort(String fieldName, boolean desc) {
+    return new RlSortField(table.getFieldByName(fieldName), desc);
+  }
+  
+  RlSortFields sorts(String fieldName, boolean desc) {
+    return new RlSortFields(sort(fieldName, desc));
+  }
+  
+  static String ids(List<Foo> list) {
+    return list.stream().map(foo->foo.id).collect(Collectors.joining(","));
+  }
+
+  public static class Foo {
+    @RlFieldAttr(pk=true, sortable=true)
+    public String id;
+
+    @RlFieldAttr(tokenized=false, sortable=true, collation="ja")
+    public String name;
+    
+    @RlFieldAttr(tokenized=false, store=true, sortable=true, converter=IntConv.class)
+    public int score;
+    
+    @RlFieldAttr(tokenized=false, sortable=true)
+    public String group;
+
+    public String desc;
+
+    public Foo() {}
+    public Foo(String id, String name, int score, String group) {
+      this.id = id;
+      this.name = name;
+      this.score = score;
+      this.group = group;
+      this.desc = "test";
+    }
+  }
+}
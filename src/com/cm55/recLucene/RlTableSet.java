@@ -1,5 +1,7 @@
 package com.cm55.recLucene;
 
+import java.nio.charset.*;
+import java.security.*;
 import java.util.*;
 import java.util.stream.*;
 
@@ -94,6 +96,15 @@ class RlTableSet {
     return table.getFieldByName(fieldName);
   }
 
+  /**
+   * フィールド名から、そのフィールドを持つテーブルを取得する。存在しなければnullを返す。
+   * @param fieldName フィールド名称
+   * @return テーブル
+   */
+  RlTable<?> getTableByFieldName(String fieldName) {
+    return fieldToTable.get(fieldName);
+  }
+  
   /**
    * 全テーブルのストリームを取得する
    * @return 全テーブルのストリーム
@@ -102,6 +113,51 @@ class RlTableSet {
     return tables.stream();
   }
   
+  /**
+   * 全テーブルのスキーマ署名を取得する。
+   * <p>
+   * 署名は、テーブルの全フィールドの定義（型、トークン化の有無、アナライザ等）から作成されるハッシュ値であり、
+   * いずれかの定義が変更されると異なる値になる。インデックスのコミットデータに記録され、
+   * 定義の変更を検出するために使用される。
+   * </p>
+   * @return テーブルのキー（{@link #getSchemaKey(RlTable)}）/署名のマップ
+   */
+  Map<String, String> getSchemaSignatures() {
+    Map<String, String> signatures = new HashMap<>();
+    tables.forEach(table-> {
+      String definition = table.getFields().map(f->f.getSignature()).sorted().collect(Collectors.joining("\n"));
+      signatures.put(getSchemaKey(table), digest(definition));
+    });
+    return signatures;
+  }
+  
+  /**
+   * スキーマ署名を記録する際のテーブルのキーを取得する。フィールドを追加・削除しても変わらないものでなければならない。
+   * クラステーブルの場合はクラス名称とする。
+   * 自由形式テーブルの場合、{@link RlAnyTable#getTableName()}はフィールド名称を含むため、プライマリキーフィールドの名称
+   * （データベース中で一意である）とする。プライマリキーの無い自由形式テーブルは、フィールド名称の変更を
+   * 定義の変更として検出することはできず、別のテーブルとして扱われる。
+   * @param table テーブル
+   * @return キー
+   */
+  static String getSchemaKey(RlTable<?> table) {
+    if (table instanceof RlAnyTable && table.getPkField() != null) {
+      return RlAnyTable.class.getSimpleName() + ":" + table.getPkField().getName();
+    }
+    return table.getTableName();
+  }
+  
+  private static String digest(String string) {
+    try {
+      byte[] bytes = MessageDigest.getInstance("SHA-256").digest(string.getBytes(StandardCharsets.UTF_8));
+      StringBuilder s = new StringBuilder();
+      for (byte b: bytes) s.append(String.format("%02x", b));
+      return s.toString();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new RlException(ex);
+    }
+  }
+  
   /**
    * このテーブルセット中の全テーブルの「各フィールドAnalyzer」オブジェクトを取得する。
    * @return
@@ -0,0 +1,147 @@
+package com.cm55.recLucene;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class RlUpdatableFieldTest {
+
+  RlDatabase database;
+
+  @Before
+  public void before() {
+    database = new RlDatabase.Ram().add(Counter.class);
+  }
+
+  @After
+  public void after() {
+    database.close();
+  }
+
+  @Test
+  public void 値のみの更新() {
+    RlWriter writer = database.createWriter();
+    writer.write(new Counter("a", "first", 1));
+    writer.write(new Counter("b", "second", 2));
+
+    writer.updateValue("a", "count", 10);
+    writer.updateValue("zzz", "count", 99); // 存在しないプライマリキーは無視される
+
+    RlSearcher<Counter> searcher = database.createSearcher(Counter.class);
+    assertEquals(new Counter("a", "first", 10),
+        searcher.search(new RlQuery.Match("id", "a")).get(0));
+    assertEquals(1, searcher.search(new RlQuery.Match("count", 10L)).size());
+    assertEquals(0, searcher.search(new RlQuery.Match("count", 1L)).size());
+    assertEquals(1, searcher.search(new RlQuery.Range("count", 2L, 10L, false, true)).size());
+    assertEquals(new HashSet<Long>(Arrays.asList(2L, 10L)),
+        searcher.searchFieldSet("count", new RlQuery.Range("id", "a", "b")));
+    assertEquals(2, searcher.getAllByField("count").size());
+    searcher.close();
+
+    writer.delete("count", 2L);
+    searcher = database.createSearcher(Counter.class);
+    assertEquals(1, searcher.getAllByPk().size());
+    searcher.close();
+
+    writer.close();
+  }
+
+  @Test
+  public void 不正な指定() {
+    try {
+      new RlField.Builder<>(Long.class).setName("x").setConverter(RlFieldConverter.LongConv.class)
+        .setUpdatable(true).build();
+      fail();
+    } catch (RlException ex) {}
+    try {
+      new RlField.Builder<>(String.class).setName("x").setTokenized(false).setUpdatable(true).build();
+      fail();
+    } catch (RlException ex) {}
+
+    RlWriter writer = database.createWriter();
+    try {
+      writer.updateValue("a", "text", 1);
+      fail();
+    } catch (RlException ex) {}
+    writer.close();
+  }
+
+  @Test
+  public void 型の範囲外の値() {
+    RlDatabase levelDatabase = new RlDatabase.Ram().add(Level.class);
+    try (RlWriter writer = levelDatabase.createWriter()) {
+      writer.write(new Level("a", 1));
+      writer.updateValue("a", "level", Integer.MAX_VALUE);
+      try {
+        writer.updateValue("a", "level", 1L << 40);
+        fail();
+      } catch (RlException.Usage ex) {}
+    }
+    try (RlSearcher<Level> searcher = levelDatabase.createSearcher(Level.class)) {
+      assertEquals(Integer.MAX_VALUE, searcher.search(new RlQuery.Match("levelId", "a")).get(0).level);
+    }
+    levelDatabase.close();
+  }
+
+  @Test
+  public void 空のインデックスへの更新() {
+    RlWriter writer = database.createWriter();
+    try {
+      writer.updateValue("a", "count", 1);
+      fail();
+    } catch (RlException.Usage ex) {}
+    
+    // 一度書き込まれれば、存在しないプライマリキーは無視される
+    writer.write(new Counter("a", "first", 1));
+    writer.updateValue("b", "count", 2);
+    writer.close();
+  }
+
+  public static class Level {
+    @RlFieldAttr(pk=true)
+    public String levelId;
+
+    @RlFieldAttr(tokenized=false, updatable=true, converter=RlFieldConverter.IntConv.class)
+    public int level;
+
+    public Level() {}
+    public Level(String levelId, int level) {
+      this.levelId = levelId;
+      this.level = level;
+    }
+  }
+
+  public static class Counter {
+    @RlFieldAttr(pk=true)
+    public String id;
+
+    @RlFieldAttr(store=true)
+    public String text;
+
+    @RlFieldAttr(tokenized=false, updatable=true, converter=RlFieldConverter.LongConv.class)
+    public long count;
+
+    public Counter() {}
+    public Counter(String id, String text, long count) {
+      this.id = id;
+      this.text = text;
+      this.count = count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Counter)) return false;
+      Counter that = (Counter)o;
+      return Objects.equals(this.id, that.id) &&
+          Objects.equals(this.text, that.text) &&
+          this.count == that.count;
+    }
+
+    @Override
+    public String toString() {
+      return id + "," + text + "," + count;
+    }
+  }
+}
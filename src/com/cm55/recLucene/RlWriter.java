@@ -1,6 +1,10 @@
 package com.cm55.recLucene;
 
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
 
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
@@ -10,8 +14,16 @@ import org.apache.lucene.search.*;
  * インデックスライタは{@link RlDatabase}から取得され、{@link #close()}するまで使用することができる。
  * 内部で使用するLuceneの{@link IndexWriter}はスレッドセーフであるが、このオブジェクトはスレッドセーフではなく、
  * 単一のスレッドで使用することを前提としている。
- * また、一度に複数の{@link RlWriter}を取得することはできない。{@link #close()}されていない{@link RlWriter}が
- * 存在する場合は、{@link RlDatabase}の取得メソッドでブロックされる。
+ * ただし、{@link #write(Object)}、{@link #write(RlAnyTable, RlValues)}は、{@link #writeAll(Iterable)}や
+ * {@link RlAsyncWriter}が内部で複数のスレッドから呼び出すため、同時に呼び出すことができる
+ * （ドキュメントはスレッドごとに再利用され、統計値はアトミックに更新される）。
+ * <p>
+ * 同時に取得できる{@link RlWriter}の数は{@link RlDatabase#setMaxWriters(int)}で指定し、初期値は一つである。
+ * 最大数の{@link RlWriter}が{@link #close()}されずに存在する場合は、{@link RlDatabase}の取得メソッドでブロックされる。
+ * 複数の{@link RlWriter}を取得した場合、それらは一つの{@link IndexWriter}を共有する軽量なセッションとなり、
+ * スレッドごとに一つずつ使用することで並列に書き込むことができる。コミットは{@link RlCommitter}によって
+ * 一度にまとめて行われる。
+ * </p>
  * @author ysugimura
  */
 public class RlWriter implements Closeable {
@@ -22,23 +34,76 @@ public class RlWriter implements Closeable {
   /** LuceneのIndexWriter */
   private IndexWriter indexWriter;
 
+  /** ライタホルダ */
+  private RlWriterHolder writerHolder;
+
   /** セマフォ保持オブジェクト。クローズ時にリリースされる */
   private RlSemaphore.Holder acquisition;
   
+  /** コミットを行うオブジェクト */
+  private RlCommitter committer;
+  
+  /** このライタによる最後の操作のシーケンス番号 */
+  private final AtomicLong lastSequence = new AtomicLong();
+  
+  /** 書き込んだドキュメント数 */
+  private final LongAdder writtenCount = new LongAdder();
+
+  /** 削除操作数 */
+  private final LongAdder deleteCount = new LongAdder();
+
+  /** 値の更新数 */
+  private final LongAdder updateCount = new LongAdder();
+
+  /** 内容が同一のため書き込みを省略した数 */
+  private final LongAdder skipCount = new LongAdder();
+  
+  /** 作成時刻 */
+  private final long createdMillis = System.currentTimeMillis();
+  
+  /** 
+   * {@link #writeIfChanged(Object)}等で、この数を超えるプライマリキーを書き込んだら、次の判定の前に
+   * 検索用リーダを最新にする
+   */
+  static final int MAX_PENDING_TERMS = 1000;
+  
+  /** 
+   * 検索用リーダを最新にした後に、このライタが書き込んだプライマリキー。
+   * これらは検索用リーダには反映されていない可能性がある
+   */
+  private final Set<Term> pendingTerms = ConcurrentHashMap.newKeySet();
+  
+  /** 
+   * {@link #writeIfChanged(Object)}等の判定の前に、検索用リーダを最新にする必要があるか。
+   * 作成直後、削除操作の後、{@link #pendingTerms}があふれた後はtrueになる
+   */
+  private volatile boolean readerStale = true;
+  
   /** 初期化 */
-  RlWriter(RlTableSet tableSet, IndexWriter indexWriter, RlSemaphore.Holder acquisition) {
+  RlWriter(RlTableSet tableSet, RlWriterHolder writerHolder, RlSemaphore.Holder acquisition) {
     this.tableSet = tableSet;
-    this.indexWriter = indexWriter;
+    this.writerHolder = writerHolder;
+    this.indexWriter = writerHolder.getIndexWriter();
+    this.committer = writerHolder.getCommitter();
     this.acquisition = acquisition;
   }
+  
+  /** 
+   * セマフォを保持しないライタ。入れ替え用のインデックスへの書き込みに使用する。
+   * そのインデックスに対する書き込みは、作成したスレッドのみが行う
+   */
+  RlWriter(RlTableSet tableSet, RlWriterHolder writerHolder) {
+    this(tableSet, writerHolder, null);
+  }
 
   private RlWriter write(Term pkTerm, Document doc) {
     // 書込み
     try {
       if (pkTerm == null) {
-        indexWriter.addDocument(doc);
+        written(indexWriter.addDocument(doc));
       } else {
-        indexWriter.updateDocument(pkTerm, doc);
+        written(indexWriter.updateDocument(pkTerm, doc));
+        pending(pkTerm);
       }
 
     } catch (IOException ex) {
@@ -47,6 +112,39 @@ public class RlWriter implements Closeable {
 
     return this;
   }
+  
+  /** 操作のシーケンス番号を記録する */
+  private void sequence(long sequence) {
+    lastSequence.accumulateAndGet(sequence, Math::max);
+  }
+  
+  /** 書き込み操作を記録する */
+  private void written(long sequence) {
+    writtenCount.increment();
+    sequence(sequence);
+  }
+  
+  /** 削除操作を記録する。削除されたプライマリキーはわからないため、次の判定の前にリーダを最新にする */
+  private void deleted(long sequence) {
+    deleteCount.increment();
+    sequence(sequence);
+    readerStale = true;
+  }
+  
+  /** 検索用リーダに反映されていない可能性のあるプライマリキーを記録する */
+  private void pending(Term pkTerm) {
+    pendingTerms.add(pkTerm);
+    if (pendingTerms.size() > MAX_PENDING_TERMS) {
+      readerStale = true;
+      pendingTerms.clear();
+    }
+  }
+
+  /** 値の更新操作を記録する */
+  private void updated(long sequence) {
+    updateCount.increment();
+    sequence(sequence);
+  }
 
   /**
    * 指定レコードを削除する。
@@ -61,8 +159,13 @@ public class RlWriter implements Closeable {
       throw new RlException("tokenized=trueのフィールドを指定して削除はできません");
     }
     try {
+      if (field.isUpdatable()) {
+        deleted(indexWriter.deleteDocuments(
+            NumericDocValuesField.newSlowExactQuery(field.getName(), field.toLong(value))));
+        return this;
+      }
       String string = field.toString(value);
-      indexWriter.deleteDocuments(new Term(field.getName(), string));
+      deleted(indexWriter.deleteDocuments(new Term(field.getName(), string)));
 
       return this;
     } catch (IOException ex) {
@@ -70,6 +173,79 @@ public class RlWriter implements Closeable {
     }
   }
 
+  /**
+   * 指定フィールドの値が、指定された値のいずれかであるレコードを一度に削除する。
+   * <p>
+   * {@link #delete(RlField, Object)}を繰り返すのと同じ結果になるが、Luceneの{@link IndexWriter}に対しては
+   * 一度の削除呼び出しで済む。フィールドはtokenized=falseでなければいけない。
+   * </p>
+   * @param field フィールド
+   * @param values 値の集合。nullを含んではならない
+   * @return このインデックスライタ
+   */
+  public <T> RlWriter deleteAll(RlField<T> field, Collection<T> values) {
+    if (field.isTokenized()) {
+      throw new RlException("tokenized=trueのフィールドを指定して削除はできません");
+    }
+    if (values.isEmpty()) return this;
+    for (T value: values) {
+      if (value == null) throw new RlException.Usage("削除する値がnullです：" + field.getName());
+    }
+    if (field.isUpdatable()) {
+      // 更新可能フィールドは項を持たないため、DocValuesのクエリで削除する
+      Query[] queries = values.stream()
+        .map(value->NumericDocValuesField.newSlowExactQuery(field.getName(), field.toLong(value)))
+        .toArray(Query[]::new);
+      try {
+        deleted(indexWriter.deleteDocuments(queries));
+      } catch (IOException ex) {
+        throw new RlException.IO(ex);
+      }
+      return this;
+    }
+    Term[] terms = new Term[values.size()];
+    int index = 0;
+    for (T value: values) {
+      terms[index++] = new Term(field.getName(), field.toString(value));
+    }
+    try {
+      deleted(indexWriter.deleteDocuments(terms));
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    }
+    return this;
+  }
+  
+  /**
+   * 指定クラスのテーブルについて、クエリに一致するレコードをすべて削除する
+   * @param recordClass レコードクラス
+   * @param query クエリ
+   * @return このインデックスライタ
+   */
+  public <T> RlWriter delete(Class<T> recordClass, RlQuery query) {
+    RlClassTable<T> table = tableSet.getTable(recordClass);
+    if (table == null) {
+      throw new RlException(recordClass.getName() + "は登録されていません");
+    }
+    return delete(table, query);
+  }
+  
+  /**
+   * 指定テーブルについて、クエリに一致するレコードをすべて削除する。
+   * ※フィールド名はデータベース中で一意であるため、クエリに使用するフィールドが属するテーブルのレコードのみが削除される。
+   * @param table テーブル
+   * @param query クエリ
+   * @return このインデックスライタ
+   */
+  public RlWriter delete(RlTable<?> table, RlQuery query) {
+    try {
+      deleted(indexWriter.deleteDocuments(query.getLuceneQuery(table)));
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    }
+    return this;
+  }
+  
   /**
    * 指定フィールドが存在するレコードをすべて削除する。
    * ※Luceneでは、一つのデータベース中においてフィールド名がユニークであることに注意。
@@ -79,9 +255,13 @@ public class RlWriter implements Closeable {
    */
   public <T> RlWriter deleteAll(RlField<?> field) {
     try {
-      Term term = new Term(field.getName(), "*");
-      Query query = new WildcardQuery(term);
-      indexWriter.deleteDocuments(query);
+      Query query;
+      if (field.isUpdatable()) {
+        query = new DocValuesFieldExistsQuery(field.getName());
+      } else {
+        query = new WildcardQuery(new Term(field.getName(), "*"));
+      }
+      deleted(indexWriter.deleteDocuments(query));
 
     } catch (IOException ex) {
       throw new RlException.IO(ex);
@@ -100,14 +280,13 @@ public class RlWriter implements Closeable {
    * @return このインデックスライタ
    */
   public <T> RlWriter write(T rec) {
-    Document doc = getLuceneDocument(rec);
+    RlClassTable<T> table = getTable(rec);
 
     // プライマリキータームを作成する
-    @SuppressWarnings("unchecked")
-    RlClassTable<T> table = tableSet.getTable((Class<T>)rec.getClass());
     Term pkTerm = table.getPkTerm(rec);
 
-    return write(pkTerm, doc);
+    // ドキュメントはスレッドごとに再利用される
+    return write(pkTerm, table.getReusableDocument(rec));
   }
 
   /**
@@ -116,9 +295,161 @@ public class RlWriter implements Closeable {
    * @param values 値マップ
    */
   public void write(RlAnyTable table, RlValues values) {
-    write(table.getPkTerm(values), getLuceneDocument(table, values));
+    write(table.getPkTerm(values), table.getReusableDocument(values));
+  }
+
+  /**
+   * 複数のレコードを並列に書き込む
+   * <p>
+   * {@link #write(Object)}と同じだが、ドキュメントの作成（リフレクションによる値の取得、アナライザによるトークン分割）
+   * と{@link IndexWriter}への投入を複数のスレッドで並列に行う。
+   * Luceneの{@link IndexWriter}はスレッドセーフであり、スレッドごとに別のセグメントを作成するため、
+   * 大量のレコードを一度に書き込む場合には、CPUコア数に応じて高速になる。
+   * 並列処理にはJavaの共通ForkJoinPoolが使用される。書き込み順序は保証されない。
+   * </p>
+   * @param recs 書き込みレコード
+   * @return このインデックスライタ
+   */
+  public <T> RlWriter writeAll(Iterable<T> recs) {
+    return writeAll(StreamSupport.stream(recs.spliterator(), true));
   }
 
+  /**
+   * 複数のレコードを並列に書き込む。{@link #writeAll(Iterable)}を参照のこと。
+   * @param recs 書き込みレコードのストリーム。並列ストリームに変換されて処理される。
+   * @return このインデックスライタ
+   */
+  public <T> RlWriter writeAll(Stream<T> recs) {
+    recs.parallel().forEach(this::write);
+    return this;
+  }
+
+  /**
+   * 自由形式の値を複数並列に書き込む。テーブルを指定する必要がある。
+   * {@link #writeAll(Iterable)}を参照のこと。
+   * @param table テーブル
+   * @param values 値マップのストリーム
+   * @return このインデックスライタ
+   */
+  public RlWriter writeAll(RlAnyTable table, Stream<RlValues> values) {
+    values.parallel().forEach(v->write(table, v));
+    return this;
+  }
+
+  /**
+   * レコードの内容が変更されている場合のみ書き込む。
+   * <p>
+   * テーブルが{@link RlClassTable#setFingerprint(boolean)}でフィンガープリントモードになっている必要がある。
+   * プライマリキーで既存のドキュメントを探し、格納されたフィンガープリントと更新可能フィールドの値が
+   * 同一であれば書き込みを行わない。大部分が変更されていないレコードを同期する場合に、
+   * ドキュメントの削除・追加による不要なマージを避けることができる。
+   * </p>
+   * <p>
+   * 既存のドキュメントは、呼び出しごとにリフレッシュすることなく、現在の検索用リーダから探す。
+   * リフレッシュによる小さなセグメントの作成を避けるためである。検索用リーダを最新にするのは、
+   * このライタでの最初の判定時、削除操作の後、このライタが書き込んでまだリーダに反映されていない可能性のある
+   * プライマリキーが指定された場合、そのようなプライマリキーが{@link #MAX_PENDING_TERMS}を超えた場合のみである。
+   * リフレッシュは{@link RlWriterOptions.Builder#setRefreshStaleSec(double, double)}の指定に従い、
+   * バックグラウンドリフレッシュを行っている場合には、それが書き込みに追いつくのを待つ。
+   * なお、判定後に他のライタが行った書き込みは考慮されない。
+   * </p>
+   * @param rec 書き込みレコード
+   * @return true:書き込んだ、false:内容が同一のため書き込まなかった
+   */
+  public <T> boolean writeIfChanged(T rec) {
+    return writeAllIfChanged(Collections.singletonList(rec)) > 0;
+  }
+
+  /**
+   * 複数のレコードについて、内容が変更されているもののみを書き込む。{@link #writeIfChanged(Object)}を参照のこと。
+   * @param recs 書き込みレコード
+   * @return 書き込んだレコード数
+   */
+  public <T> int writeAllIfChanged(Iterable<T> recs) {
+    int count = 0;
+    for (T rec: recs) {
+      RlClassTable<T> table = getTable(rec);
+      checkFingerprint(table);
+      Term pkTerm = table.getPkTerm(rec);
+      if (isUnchanged(pkTerm, (r, d)->table.isUnchanged(rec, r, d))) {
+        skipCount.increment();
+        continue;
+      }
+      write(pkTerm, table.getReusableDocument(rec));
+      count++;
+    }
+    return count;
+  }
+  
+  /**
+   * 自由形式の値を、内容が変更されている場合のみ書き込む。{@link #writeIfChanged(Object)}を参照のこと。
+   * @param table テーブル
+   * @param values 値マップ
+   * @return true:書き込んだ、false:内容が同一のため書き込まなかった
+   */
+  public boolean writeIfChanged(RlAnyTable table, RlValues values) {
+    checkFingerprint(table);
+    Term pkTerm = table.getPkTerm(values);
+    if (isUnchanged(pkTerm, (r, d)->table.isUnchanged(values, r, d))) {
+      skipCount.increment();
+      return false;
+    }
+    write(pkTerm, table.getReusableDocument(values));
+    return true;
+  }
+  
+  private void checkFingerprint(RlTable<?> table) {
+    boolean fingerprint = table instanceof RlClassTable? 
+        ((RlClassTable<?>)table).isFingerprint():((RlAnyTable)table).isFingerprint();
+    if (!fingerprint) {
+      throw new RlException("フィンガープリントモードではありません：" + table.getTableName());
+    }
+  }
+  
+  /** 既存ドキュメントとの比較 */
+  private interface DocumentCheck {
+    boolean test(LeafReader reader, int docId) throws IOException;
+  }
+  
+  /** 
+   * プライマリキーで既存のドキュメントを探し、内容を比較する。存在しなければfalseを返す。
+   * 必要な場合のみ、検索用リーダを最新にしてから探す。
+   */
+  private boolean isUnchanged(Term pkTerm, DocumentCheck check) {
+    if (readerStale || pendingTerms.contains(pkTerm)) {
+      readerStale = false;
+      pendingTerms.clear();
+      writerHolder.waitForGeneration(indexWriter.getMaxCompletedSequenceNumber());
+    }
+    SearcherManager manager = writerHolder.acquireManager();
+    try {
+      IndexSearcher searcher = manager.acquire();
+      try {
+        return isUnchanged(searcher.getIndexReader(), pkTerm, check);
+      } finally {
+        manager.release(searcher);
+      }
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    } finally {
+      writerHolder.releaseManager(manager);
+    }
+  }
+  
+  /** プライマリキーで既存のドキュメントを探し、内容を比較する。存在しなければfalseを返す */
+  private boolean isUnchanged(IndexReader reader, Term pkTerm, DocumentCheck check) throws IOException {
+    for (LeafReaderContext leaf: reader.leaves()) {
+      PostingsEnum postings = leaf.reader().postings(pkTerm, PostingsEnum.NONE);
+      if (postings == null) continue;
+      org.apache.lucene.util.Bits liveDocs = leaf.reader().getLiveDocs();
+      for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+        if (liveDocs != null && !liveDocs.get(doc)) continue;
+        return check.test(leaf.reader(), doc);
+      }
+    }
+    return false;
+  }
+  
   /**
    * 指定フィールドが指定値のレコードを削除する
    * 
@@ -133,6 +464,20 @@ public class RlWriter implements Closeable {
     delete(field, value);
   }
 
+  /**
+   * 指定フィールドが、指定値のいずれかであるレコードを削除する
+   * 
+   * @param fieldName フィールド名称
+   * @param values 値の集合
+   */
+  public <T> void deleteAll(String fieldName, Collection<T> values) {
+    @SuppressWarnings("unchecked")
+    RlField<T> field = (RlField<T>)tableSet.getFieldByName(fieldName);
+    if (field == null)
+      throw new RlException("フィールドがありません:" + fieldName);
+    deleteAll(field, values);
+  }
+  
   /**
    * 指定フィールドのあるすべてのレコードを削除する
    * @param field フィールド名称
@@ -144,32 +489,141 @@ public class RlWriter implements Closeable {
     deleteAll(field);
   }
 
+  /**
+   * 指定されたプライマリキーのレコードの、更新可能フィールドの値だけを更新する。
+   * <p>
+   * ドキュメント全体を書き込みなおすことなく、LuceneのDocValuesの値のみを置き換えるため、
+   * {@link #write(Object)}に比べて非常に軽い。カウンタやステータスの頻繁な更新に用いる。
+   * フィールドは{@link RlFieldAttr#updatable()}が指定されたものでなければならない。
+   * プライマリキーに該当するレコードが無い場合には何もしない。
+   * ただし、空のインデックスやリセット直後など、そのフィールドを持つドキュメントが一度も書き込まれていない場合には
+   * {@link RlException.Usage}となる。
+   * </p>
+   * @param pk プライマリキー値
+   * @param field 更新可能フィールド
+   * @param value 新たな値
+   * @return このインデックスライタ
+   */
+  public <P> RlWriter updateValue(P pk, RlField<?> field, long value) {
+    if (!field.isUpdatable()) {
+      throw new RlException("updatable=trueのフィールドではありません：" + field.getName());
+    }
+    RlTable<?> table = tableSet.getTableByFieldName(field.getName());
+    if (table == null || table.getFieldByName(field.getName()) != field) {
+      throw new RlException("フィールドが登録されていません：" + field.getName());
+    }
+    @SuppressWarnings("unchecked")
+    RlField<P> pkField = (RlField<P>)table.getPkField();
+    if (pkField == null) {
+      throw new RlException("プライマリキーフィールドがありません：" + table.getTableName());
+    }
+    if (pk == null) {
+      throw new RlException("プライマリキーがnullです");
+    }
+    field.checkLongRange(value);
+    try {
+      Term pkTerm = new Term(pkField.getName(), pkField.toString(pk));
+      updated(indexWriter.updateNumericDocValue(pkTerm, field.getName(), value));
+      pending(pkTerm);
+    } catch (IllegalArgumentException ex) {
+      // フィールドがインデックスに一度も現れていない
+      throw new RlException.Usage("フィールドを持つドキュメントがありません：" + field.getName());
+    } catch (IOException ex) {
+      throw new RlException.IO(ex);
+    }
+    return this;
+  }
+  
+  /**
+   * 指定されたプライマリキーのレコードの、更新可能フィールドの値だけを更新する。
+   * @param pk プライマリキー値
+   * @param fieldName 更新可能フィールド名称
+   * @param value 新たな値
+   * @return このインデックスライタ
+   */
+  public <P> RlWriter updateValue(P pk, String fieldName, long value) {
+    RlField<?> field = tableSet.getFieldByName(fieldName);
+    if (field == null)
+      throw new RlException("フィールドがありません：" + fieldName);
+    return updateValue(pk, field, value);
+  }
+
   /**
    * このインデックスデータベースのすべてのレコードを削除する
    */
   public <T> void deleteAll() {
     try {
-      indexWriter.deleteAll();
+      deleted(indexWriter.deleteAll());
     } catch (IOException ex) {
       throw new RlException.IO(ex);
     }
   }
 
   /**
-   * クローズする
+   * このライタによる最後の書き込み・削除操作の世代を取得する。
+   * <p>
+   * {@link RlSearcher#awaitGeneration(long)}にこの値を与えることで、このライタの書き込みが検索可能になるまで
+   * 待つことができる。{@link #write(Object)}等はメソッドチェーンのためにこのライタ自身を返すので、
+   * 書き込み直後にこのメソッドで取得すること。
+   * </p>
+   * @return 世代（Luceneの操作シーケンス番号）
+   */
+  public long getGeneration() {
+    return lastSequence.get();
+  }
+  
+  /**
+   * このライタの統計情報を取得する
+   * @return 統計情報
+   */
+  public Stats getStats() {
+    return new Stats(writtenCount.sum(), deleteCount.sum(), updateCount.sum(), skipCount.sum(),
+        System.currentTimeMillis() - createdMillis);
+  }
+  
+  /**
+   * これまでのすべての書き込みを直ちにコミットする。
+   * このライタ以外による書き込みもコミットされる。
+   */
+  public void flush() {
+    committer.flush();
+  }
+  
+  /**
+   * このライタによるこれまでの書き込みがコミットされるまで待つ。
+   * 既にコミットされていれば直ちに戻る。コミットされていなければコミットを行うが、
+   * 他のスレッドと同時に呼び出された場合は一度のコミットにまとめられる。
+   */
+  public void awaitDurable() {
+    committer.awaitDurable(lastSequence.get());
+  }
+  
+  /**
+   * クローズする。
+   * {@link RlCommitPolicy#isCommitOnWriterClose()}がtrueであれば、このライタの書き込みがコミットされるまで待つ。
+   * コミットに失敗した場合は、ライタを解放した上で例外を投げる。
    */
   @Override
   public void close() {
+    if (indexWriter == null) return;
+    indexWriter = null;
     try {
-      indexWriter.commit();    
-      indexWriter = null;
-    } catch (Exception ex) {}
-      acquisition.release();
+      committer.writerClosed(lastSequence.get());
+    } finally {
+      if (acquisition != null) acquisition.release();
+    }
   }
   
   ////////////////////////////////////////////////////////
   
   <T> Document getLuceneDocument(T rec) {
+
+    // ドキュメントを作成する
+    return getTable(rec).getDocument(rec);
+  }
+  
+  /** レコードオブジェクトのテーブルを取得する */
+  private <T> RlClassTable<T> getTable(T rec) {
     if (rec instanceof RlValues) {
       throw new RlException("RlValuesは使用できません");
     }
@@ -183,9 +637,7 @@ public class RlWriter implements Closeable {
     if (table == null) {
       throw new RlException(clazz.getName() + "は登録されていません");
     }
-
-    // ドキュメントを作成する
-    return table.getDocument(rec);
+    return table;
   }
 
   /**
@@ -198,4 +650,64 @@ public class RlWriter implements Closeable {
   Document getLuceneDocument(RlAnyTable table, RlValues values) {
     return table.getDocument(values);
   }
+  
+  /**
+   * ライタの統計情報。{@link RlWriter#getStats()}で取得した時点の値を保持する。
+   */
+  public static class Stats {
+    
+    /** 書き込んだドキュメント数 */
+    private final long written;
+    
+    /** 削除操作数 */
+    private final long deletes;
+    
+    /** 値の更新数 */
+    private final long updates;
+    
+    /** 内容が同一のため書き込みを省略した数 */
+    private final long skipped;
+    
+    /** ライタ作成からの経過時間 */
+    private final long elapsedMillis;
+    
+    Stats(long written, long deletes, long updates, long skipped, long elapsedMillis) {
+      this.written = written;
+      this.deletes = deletes;
+      this.updates = updates;
+      this.skipped = skipped;
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    /** 書き込んだドキュメント数を取得する */
+    public long getWritten() {
+      return written;
+    }
+
+    /** 削除操作の回数を取得する。一度の操作で削除されたドキュメント数ではない */
+    public long getDeletes() {
+      return deletes;
+    }
+
+    /** {@link RlWriter#updateValue(Object, RlField, long)}による値の更新数を取得する */
+    public long getUpdates() {
+      return updates;
+    }
+
+    /** {@link RlWriter#writeIfChanged(Object)}等で、内容が同一のため書き込みを省略した数を取得する */
+    public long getSkipped() {
+      return skipped;
+    }
+
+    /** ライタ作成からの経過時間（ミリ秒）を取得する */
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+    
+    /** 文字列化。デバッグ用 */
+    @Override
+    public String toString() {
+      return "written:" + written + ",deletes:" + deletes + ",updates:" + updates + ",skipped:" + skipped + ",elapsed:" + elapsedMillis;
+    }
+  }
 }
@@ -1,5 +1,9 @@
 package com.cm55.recLucene;
 
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
 import org.apache.lucene.analysis.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.search.*;
@@ -18,6 +22,21 @@ public class RlWriterHolder {
   private RlTableSet tableSet;
   private IndexWriter indexWriter;
   private SearcherManager searcherManager;
+  private RlCommitter committer;
+  private ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+  private RlWriterOptions options = RlWriterOptions.DEFAULT;
+  
+  /** {@link RlSearcher}が使用中の{@link SearcherManager}と、その使用数 */
+  private final Map<SearcherManager, Integer> leases = new IdentityHashMap<>();
+  
+  /** 入れ替えによって使用されなくなり、使用数が0になるのを待っている{@link SearcherManager}と、その破棄処理 */
+  private final Map<SearcherManager, Runnable> retired = new IdentityHashMap<>();
+  
+  /** 検索結果のキャッシュ。使用しない場合はnull */
+  private volatile RlResultCache resultCache;
+  
+  /** {@link SearcherManager}が{@link IndexSearcher}を作成する際に使用する */
+  private Factory searcherFactory = new Factory();
 
   /**
    * データベースディレクトリと、その中のテーブル定義を指定してリセットする。
@@ -42,6 +61,356 @@ public class RlWriterHolder {
     return searcherManager;
   }
 
+  /** 検索結果のキャッシュを取得する。使用しない場合はnull */
+  public RlResultCache getResultCache() {
+    return resultCache;
+  }
+  
+  /** 検索結果のキャッシュを設定する。使用しない場合はnull */
+  void setResultCache(RlResultCache resultCache) {
+    this.resultCache = resultCache;
+  }
+  
+  /** Luceneのフィルタキャッシュを取得する。Luceneの既定のものを使用する場合はnull */
+  public RlQueryCache getQueryCache() {
+    return searcherFactory.queryCache;
+  }
+  
+  /** 
+   * Luceneのフィルタキャッシュを設定する。次のリフレッシュ以降の検索から使用される
+   * @param queryCache キャッシュ。Luceneの既定のものを使用する場合はnull
+   */
+  synchronized void setQueryCache(RlQueryCache queryCache) {
+    searcherFactory.queryCache = queryCache;
+  }
+  
+  /** セグメントを並列に検索するためのスレッドプールを取得する。並列に検索しない場合はnull */
+  public ExecutorService getSearchExecutor() {
+    return searcherFactory.executor;
+  }
+  
+  /** 並列に検索する最小のドキュメント数を取得する */
+  public int getParallelMinDocs() {
+    return searcherFactory.parallelMinDocs;
+  }
+  
+  /**
+   * セグメントを並列に検索するためのスレッドプールを設定する。次のリフレッシュ以降の検索から使用される
+   * @param executor スレッドプール。並列に検索しない場合はnull
+   * @param parallelMinDocs 並列に検索する最小のドキュメント数
+   */
+  synchronized void setSearchExecutor(ExecutorService executor, int parallelMinDocs) {
+    searcherFactory.parallelMinDocs = parallelMinDocs;
+    searcherFactory.executor = executor;
+  }
+  
+  /**
+   * {@link IndexSearcher}を作成する。
+   * フィルタキャッシュが設定されていれば、それとキャッシュの決定方法を設定する。
+   * 設定されていなければ、Luceneの既定のキャッシュと、{@link RlQueryCache.FilterQuery}の中を見る既定の決定方法を設定する。
+   * スレッドプールが設定されており、インデックスが複数のセグメントからなり、そのドキュメント数が
+   * 指定以上であれば、セグメントを並列に検索する{@link IndexSearcher}とする。
+   */
+  static class Factory extends SearcherFactory {
+    
+    volatile RlQueryCache queryCache;
+    
+    volatile ExecutorService executor;
+    
+    volatile int parallelMinDocs;
+    
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws java.io.IOException {
+      ExecutorService pool = executor;
+      IndexSearcher searcher;
+      if (pool != null && reader.leaves().size() > 1 && reader.maxDoc() >= parallelMinDocs) {
+        searcher = new IndexSearcher(reader, pool);
+      } else {
+        searcher = new IndexSearcher(reader);
+      }
+      RlQueryCache cache = queryCache;
+      if (cache != null) {
+        searcher.setQueryCache(cache.getLuceneCache());
+        searcher.setQueryCachingPolicy(cache.getPolicy());
+      } else {
+        searcher.setQueryCachingPolicy(new RlQueryCache.DefaultPolicy(IndexSearcher.getDefaultQueryCachingPolicy()));
+      }
+      return searcher;
+    }
+  }
+  
+  /** 
+   * 検索前にリフレッシュを行う必要があるかを取得する。
+   * バックグラウンドリフレッシュを行っている場合はfalseを返す。
+   */
+  public synchronized boolean needsRefreshOnSearch() {
+    return reopenThread == null;
+  }
+  
+  /**
+   * 指定された世代（書き込み操作のシーケンス番号）が検索可能になるまで待つ。
+   * バックグラウンドリフレッシュを行っていない場合は、直ちにリフレッシュする。
+   * @param generation {@link RlWriter#getGeneration()}で取得した世代
+   */
+  public void waitForGeneration(long generation) {
+    ControlledRealTimeReopenThread<IndexSearcher> thread;
+    SearcherManager manager;
+    synchronized (this) {
+      ensure();
+      thread = reopenThread;
+      manager = searcherManager;
+    }
+    try {
+      if (thread != null) {
+        thread.waitForGeneration(generation);
+      } else {
+        manager.maybeRefreshBlocking();
+      }
+    } catch (AlreadyClosedException ex) {
+      // 待っている間に入れ替えられた。入れ替え後のインデックスは、以前のものの世代をすべて含むものとして扱う
+      if (!isReplaced(manager)) throw new RlException(ex);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new RlException(ex);
+    } catch (IllegalArgumentException ex) {
+      throw new RlException.Usage(ex);
+    } catch (java.io.IOException ex) {
+      throw new RlException.IO(ex);
+    }
+  }
+  
+  /**
+   * 検索用に現在の{@link SearcherManager}を取得し、その使用数を増やす。
+   * 使用後は必ず{@link #releaseManager(SearcherManager)}を呼び出すこと。
+   * {@link #swap(RlWriterHolder, Consumer)}によって入れ替えられた後も、解放されるまでは以前の
+   * インデックスを検索することができる。
+   * @return サーチャーマネージャ
+   */
+  synchronized SearcherManager acquireManager() {
+    ensure();
+    leases.merge(searcherManager, 1, Integer::sum);
+    return searcherManager;
+  }
+  
+  /**
+   * 検索用に現在の{@link SearcherManager}を取得し、検索ごとのリフレッシュを行う設定であればリフレッシュする。
+   * 使用後は必ず{@link #releaseManager(SearcherManager)}を呼び出すこと。
+   * <p>
+   * リフレッシュはロックの外で行われるため、その間に{@link #swap(RlWriterHolder, Consumer)}によって
+   * 以前の{@link IndexWriter}が破棄されると失敗する。その場合は、入れ替え後のものを取得しなおす。
+   * </p>
+   * @return サーチャーマネージャ
+   */
+  SearcherManager acquireRefreshedManager() {
+    while (true) {
+      SearcherManager manager = acquireManager();
+      try {
+        if (needsRefreshOnSearch()) manager.maybeRefreshBlocking();
+        return manager;
+      } catch (Exception ex) {
+        releaseManager(manager);
+        if (isReplaced(manager)) continue;
+        if (ex instanceof RlException) throw (RlException)ex;
+        if (ex instanceof java.io.IOException) throw new RlException.IO((java.io.IOException)ex);
+        throw new RlException(ex);
+      }
+    }
+  }
+  
+  /** 指定された{@link SearcherManager}が、入れ替えによって現在のものではなくなっているか */
+  private synchronized boolean isReplaced(SearcherManager manager) {
+    return manager != searcherManager;
+  }
+  
+  /**
+   * {@link #acquireManager()}で取得した{@link SearcherManager}の使用数を減らす。
+   * それが入れ替えによって使用されなくなったものであり、使用数が0になった場合には破棄する。
+   * @param manager サーチャーマネージャ
+   */
+  void releaseManager(SearcherManager manager) {
+    Runnable dispose;
+    synchronized (this) {
+      Integer count = leases.get(manager);
+      if (count == null) return;
+      if (count > 1) {
+        leases.put(manager, count - 1);
+        return;
+      }
+      leases.remove(manager);
+      dispose = retired.remove(manager);
+    }
+    if (dispose != null) dispose.run();
+  }
+  
+  /**
+   * 別のホルダが保持するインデックスと入れ替える。
+   * <p>
+   * このホルダの{@link IndexWriter}等は、sideが保持していたものになる。以前の{@link IndexWriter}は
+   * コミットせずに破棄される。以前の{@link SearcherManager}は、{@link RlSearcher}による使用がすべて
+   * 解放された時点でクローズされ、以前のディレクトリが破棄される。
+   * 呼び出し側は、すべての{@link RlWriter}がクローズされていることを保証しなければならない。
+   * </p>
+   * @param side 新たなインデックスを保持するホルダ。呼び出し後は使用できない。
+   * @param disposeDirectory 以前のディレクトリの破棄処理
+   */
+  void swap(RlWriterHolder side, Consumer<Directory> disposeDirectory) {
+    Runnable dispose;
+    synchronized (this) {
+      side.ensure();
+      
+      Directory oldDirectory = directory;
+      IndexWriter oldWriter = indexWriter;
+      SearcherManager oldManager = searcherManager;
+      RlCommitter oldCommitter = committer;
+      ControlledRealTimeReopenThread<IndexSearcher> oldReopenThread = reopenThread;
+      synchronized (side) {
+        directory = side.directory;
+        indexWriter = side.indexWriter;
+        searcherManager = side.searcherManager;
+        searcherFactory = side.searcherFactory;
+        committer = side.committer;
+        reopenThread = side.reopenThread;
+        side.indexWriter = null;
+        side.searcherManager = null;
+        side.committer = null;
+        side.reopenThread = null;
+      }
+      
+      // 以前のライタを停止する。以前のサーチャーマネージャから取得した検索用リーダは引き続き使用できる
+      if (oldWriter != null) {
+        oldCommitter.close();
+        if (oldReopenThread != null) oldReopenThread.close();
+        try {
+          oldWriter.rollback();
+        } catch (java.io.IOException ex) {
+          throw new RlException.IO(ex);
+        }
+      }
+      dispose = ()-> {
+        if (oldManager != null) {
+          try {
+            oldManager.close();
+          } catch (java.io.IOException ex) {}
+        }
+        disposeDirectory.accept(oldDirectory);
+      };
+      if (oldManager != null && leases.containsKey(oldManager)) {
+        retired.put(oldManager, dispose);
+        dispose = null;
+      }
+    }
+    if (dispose != null) dispose.run();
+  }
+  
+  /** {@link IndexWriter}のコミットを行う{@link RlCommitter}を取得する */
+  RlCommitter getCommitter() {
+    ensure();
+    return committer;
+  }
+  
+  /** 現在の{@link RlWriterOptions}を取得する */
+  public synchronized RlWriterOptions getOptions() {
+    return options;
+  }
+  
+  /**
+   * 指定された{@link RlWriterOptions}に切り替えるには、{@link IndexWriter}と{@link SearcherManager}を
+   * 作成しなおす必要があるかを調べる。ストアフィールドの圧縮モードが異なる場合には作成しなおす必要がある。
+   * @param newOptions 新たな設定
+   * @return true:作成しなおす必要がある
+   */
+  public synchronized boolean needsReopen(RlWriterOptions newOptions) {
+    return indexWriter != null && options.getStoredFieldsMode() != newOptions.getStoredFieldsMode();
+  }
+  
+  /**
+   * {@link RlWriterOptions}を切り替える。
+   * 現在の設定を終了させ（{@link #finish()}を参照）、新たな設定をオープン中の{@link IndexWriter}に適用する。
+   * {@link #needsReopen(RlWriterOptions)}がtrueの場合は、いったんクローズし、次回の使用時に新たな設定で作成される。
+   * 呼び出し側は、すべての{@link RlWriter}がクローズされていることを保証しなければならない。
+   * また、作成しなおす場合には、すべての{@link RlSearcher}がクローズされていることも保証しなければならない。
+   * @param newOptions 新たな設定
+   */
+  public synchronized void setOptions(RlWriterOptions newOptions) {
+    finish();
+    if (needsReopen(newOptions)) {
+      close();
+    } else if (indexWriter != null) {
+      newOptions.applyTo(indexWriter);
+      committer.setPolicy(newOptions.getCommitPolicy());
+      stopReopenThread();
+      startReopenThread(newOptions);
+    }
+    options = newOptions;
+  }
+  
+  /** 必要であればバックグラウンドリフレッシュスレッドを起動する */
+  private void startReopenThread(RlWriterOptions o) {
+    if (!o.isBackgroundRefresh()) return;
+    reopenThread = new ControlledRealTimeReopenThread<>(indexWriter, searcherManager, 
+        o.getRefreshMaxStaleSec(), o.getRefreshMinStaleSec());
+    reopenThread.setName("RlReopen");
+    reopenThread.setDaemon(true);
+    reopenThread.start();
+  }
+  
+  /** バックグラウンドリフレッシュスレッドがあれば停止する */
+  private void stopReopenThread() {
+    if (reopenThread == null) return;
+    reopenThread.close();
+    reopenThread = null;
+  }
+  
+  /**
+   * 現在の設定を終了させる。
+   * {@link RlWriterOptions#getFinishMergeSegments()}が指定されていればその数のセグメントまでマージし、コミットする。
+   */
+  public synchronized void finish() {
+    if (indexWriter == null) return;
+    try {
+      if (options.getFinishMergeSegments() > 0) {
+        indexWriter.getConfig().setMergePolicy(options.createMergePolicy());
+        indexWriter.forceMerge(options.getFinishMergeSegments());
+      }
+    } catch (java.io.IOException ex) {
+      throw new RlException.IO(ex);
+    }
+    committer.flush();
+  }
+  
+  /**
+   * これまでの書き込みをコミットし、そのコミットのスナップショットを取得する。
+   * {@link #releaseSnapshot(IndexCommit)}で解放するまで、その後のマージやコミットがあっても、
+   * このコミットを構成するファイルは削除されない。
+   * @return スナップショット
+   */
+  synchronized IndexCommit snapshot() {
+    ensure();
+    committer.flush();
+    try {
+      return getSnapshotPolicy().snapshot();
+    } catch (java.io.IOException ex) {
+      throw new RlException.IO(ex);
+    }
+  }
+  
+  /**
+   * {@link #snapshot()}で取得したスナップショットを解放する
+   * @param commit スナップショット
+   */
+  synchronized void releaseSnapshot(IndexCommit commit) {
+    try {
+      getSnapshotPolicy().release(commit);
+      indexWriter.deleteUnusedFiles();
+    } catch (java.io.IOException ex) {
+      throw new RlException.IO(ex);
+    }
+  }
+  
+  private SnapshotDeletionPolicy getSnapshotPolicy() {
+    return (SnapshotDeletionPolicy)indexWriter.getConfig().getIndexDeletionPolicy();
+  }
+  
   /** 未作成であれば{@link IndexWriter}と{@link SearchManager}を作成する */
   private synchronized void ensure() {
     if (indexWriter != null) return;
@@ -49,7 +418,10 @@ public class RlWriterHolder {
     Analyzer analyzer = tableSet.getPerFieldAnalyzer();
     
     // コンフィギュレーションを作成。これは使い回せるものなのだろうか？
-    IndexWriterConfig config = new IndexWriterConfig(analyzer);
+    IndexWriterConfig config = options.createConfig(analyzer);
+    
+    // スナップショット中のコミットを削除しないようにする
+    config.setIndexDeletionPolicy(new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy()));
 
     // クローズ時にコミットするモードになっていることを確認
     assert config.getCommitOnClose();
@@ -60,10 +432,80 @@ public class RlWriterHolder {
       throw new RlException(ex);
     }
     try {
-      searcherManager = new SearcherManager(indexWriter, true, true, null);
+      searcherManager = new SearcherManager(indexWriter, true, true, searcherFactory);
     } catch (Exception ex) {
       throw new RlException(ex);
     }
+    committer = new RlCommitter(indexWriter, options.getCommitPolicy());
+    stampSchemaSignatures();
+    startReopenThread(options);
+  }
+  
+  /** コミットデータにおける、テーブルのスキーマ署名のキーの接頭辞 */
+  static final String SCHEMA_KEY_PREFIX = "rlSchema.";
+  
+  /**
+   * まだスキーマ署名が記録されていないテーブルについて、現在の署名を記録する。
+   * 既に記録されているものは、定義が変更されていても書き換えない。
+   * <p>
+   * 署名が記録されていないインデックス（署名の記録を行わない以前のバージョンで作成されたもの）を最初にオープンした時点では、
+   * その時点の定義が記録される。したがって、それ以前に行われた定義の変更は検出されない。
+   * </p>
+   */
+  private void stampSchemaSignatures() {
+    Map<String, String> commitData = getCommitData();
+    boolean stamped = false;
+    for (Map.Entry<String, String> e: tableSet.getSchemaSignatures().entrySet()) {
+      if (commitData.containsKey(SCHEMA_KEY_PREFIX + e.getKey())) continue;
+      commitData.put(SCHEMA_KEY_PREFIX + e.getKey(), e.getValue());
+      stamped = true;
+    }
+    if (stamped) indexWriter.setLiveCommitData(commitData.entrySet());
+  }
+  
+  /** 次回のコミットで記録されるコミットデータを取得する */
+  private Map<String, String> getCommitData() {
+    Map<String, String> commitData = new HashMap<>();
+    Iterable<Map.Entry<String, String>> live = indexWriter.getLiveCommitData();
+    if (live != null) live.forEach(e->commitData.put(e.getKey(), e.getValue()));
+    return commitData;
+  }
+  
+  /**
+   * 次回のコミットで記録されるコミットデータの値を取得する。
+   * 設定されていなければ、最後のコミットに記録された値になる。
+   * @param key キー
+   * @return 値。無い場合はnull
+   */
+  synchronized String getCommitData(String key) {
+    ensure();
+    return getCommitData().get(key);
+  }
+  
+  /**
+   * 次回のコミットで記録されるコミットデータに値を設定する。他のキーの値は保持される。
+   * @param key キー
+   * @param value 値
+   */
+  synchronized void putCommitData(String key, String value) {
+    ensure();
+    Map<String, String> commitData = getCommitData();
+    commitData.put(key, value);
+    indexWriter.setLiveCommitData(commitData.entrySet());
+  }
+  
+  /**
+   * インデックスに記録されたスキーマ署名と、現在のテーブル定義の署名が異なるテーブルがあるかを調べる。
+   * 記録されたすべての署名を現在のものと比較し、現在は存在しないテーブルの署名があれば、それも変更とみなす。
+   * 署名が記録されていないテーブルは、現在の定義で作成されたものとみなす。
+   * @return true:定義が変更されたテーブルがある
+   */
+  synchronized boolean isSchemaChanged() {
+    ensure();
+    Map<String, String> current = tableSet.getSchemaSignatures();
+    return getCommitData().entrySet().stream()
+      .filter(e->e.getKey().startsWith(SCHEMA_KEY_PREFIX))
+      .anyMatch(e->!e.getValue().equals(current.get(e.getKey().substring(SCHEMA_KEY_PREFIX.length()))));
   }
   
   /** 
@@ -72,7 +514,15 @@ public class RlWriterHolder {
    * 上位の{@link RlWriter}においてクローズを行っても、このメソッドが呼び出されることはない。
    */
   public synchronized void close() {
+    
+    // 入れ替え後に解放されていないものも破棄する
+    leases.clear();
+    new ArrayList<>(retired.values()).forEach(Runnable::run);
+    retired.clear();
+    
     if (indexWriter == null) return;
+    committer.close();
+    stopReopenThread();
     try {     
       searcherManager.close();
     } catch (Exception ex) {
@@ -88,5 +538,6 @@ public class RlWriterHolder {
     }
     indexWriter = null;
     searcherManager = null;
+    committer = null;
   }
 }
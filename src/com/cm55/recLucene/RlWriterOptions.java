@@ -0,0 +1,336 @@
+package com.cm55.recLucene;
+
+import org.apache.lucene.analysis.*;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat.*;
+import org.apache.lucene.codecs.lucene70.*;
+import org.apache.lucene.index.*;
+
+/**
+ * Luceneの{@link IndexWriter}のチューニング設定
+ * <p>
+ * {@link RlDatabase#setWriterOptions(RlWriterOptions)}によって指定する。データベースオープン中に切り替えることができ、
+ * データベースのリセットは不要である。
+ * 典型的な設定として、デフォルト（Luceneのデフォルト設定そのまま）の{@link #DEFAULT}、大量のレコードを一括して書き込むための
+ * {@link #BULK_LOAD}、頻繁な書き込みと検索が混在する場合の{@link #NRT}を用意している。
+ * </p>
+ * <p>
+ * 数値の設定値について、0はLuceneのデフォルト値を使用することを示す。
+ * </p>
+ * @author ysugimura
+ */
+public class RlWriterOptions {
+
+  /** Luceneのデフォルト設定。{@link RlWriter#close()}のたびにコミットする */
+  public static final RlWriterOptions DEFAULT = new Builder().build();
+  
+  /** 
+   * 一括書き込み用設定。
+   * <p>
+   * 大きなRAMバッファを使用し、書き込み中のマージは行わず、明示的に要求されない限りコミットも行わない。
+   * この設定から別の設定に切り替えたとき、あるいはデータベースをクローズしたときに、一つのセグメントにマージ
+   * してコミットする。
+   * </p>
+   */
+  public static final RlWriterOptions BULK_LOAD = new Builder()
+    .setRamBufferSizeMB(256)
+    .setDeferMerges(true)
+    .setCommitPolicy(RlCommitPolicy.explicit())
+    .setFinishMergeSegments(1)
+    .setUseCompoundFile(false)
+    .build();
+  
+  /**
+   * ニアリアルタイム用設定。
+   * <p>
+   * 小さなRAMバッファで頻繁にセグメントを書き出し、小さなセグメントを積極的にマージすることで、
+   * 検索のためのリフレッシュを高速にする。コミットはバックグラウンドで1秒ごとにまとめて行う。
+   * 検索のたびにリフレッシュすることはせず、バックグラウンドで最大0.5秒ごとにリフレッシュする。
+   * 直前の書き込みを確実に検索したい場合は{@link RlSearcher#awaitGeneration(long)}を使用する。
+   * </p>
+   */
+  public static final RlWriterOptions NRT = new Builder()
+    .setRamBufferSizeMB(8)
+    .setSegmentsPerTier(5)
+    .setFloorSegmentMB(1)
+    .setCommitPolicy(RlCommitPolicy.everyMillis(1000))
+    .setRefreshStaleSec(0.01, 0.5)
+    .build();
+  
+  /** RAMバッファサイズ(MB) */
+  private double ramBufferSizeMB;
+  
+  /** 書き込み中のマージを行わない */
+  private boolean deferMerges;
+  
+  /** {@link TieredMergePolicy}のティアあたりのセグメント数 */
+  private double segmentsPerTier;
+  
+  /** {@link TieredMergePolicy}の最小セグメントサイズ(MB) */
+  private double floorSegmentMB;
+  
+  /** マージスレッド数 */
+  private int mergeThreads;
+  
+  /** ストアフィールドの圧縮モード。nullの場合はコーデックのデフォルト */
+  private Mode storedFieldsMode;
+  
+  /** 新たなセグメントをコンパウンドファイルにする */
+  private boolean useCompoundFile;
+  
+  /** コミットポリシー */
+  private RlCommitPolicy commitPolicy;
+  
+  /** バックグラウンドリフレッシュで、世代待ちがある場合の最大の古さ(秒) */
+  private double refreshMinStaleSec;
+  
+  /** バックグラウンドリフレッシュで、世代待ちが無い場合の最大の古さ(秒)。0の場合は検索のたびにリフレッシュする */
+  private double refreshMaxStaleSec;
+  
+  /** この設定の終了時にマージする最大セグメント数。0の場合はマージしない */
+  private int finishMergeSegments;
+
+  private RlWriterOptions() {
+  }
+
+  /** RAMバッファサイズ(MB)を取得する */
+  public double getRamBufferSizeMB() {
+    return ramBufferSizeMB;
+  }
+
+  /** 書き込み中のマージを行わないかを取得する */
+  public boolean isDeferMerges() {
+    return deferMerges;
+  }
+
+  /** ティアあたりのセグメント数を取得する */
+  public double getSegmentsPerTier() {
+    return segmentsPerTier;
+  }
+
+  /** 最小セグメントサイズ(MB)を取得する */
+  public double getFloorSegmentMB() {
+    return floorSegmentMB;
+  }
+
+  /** マージスレッド数を取得する */
+  public int getMergeThreads() {
+    return mergeThreads;
+  }
+
+  /** ストアフィールドの圧縮モードを取得する */
+  public Mode getStoredFieldsMode() {
+    return storedFieldsMode;
+  }
+
+  /** 新たなセグメントをコンパウンドファイルにするかを取得する */
+  public boolean isUseCompoundFile() {
+    return useCompoundFile;
+  }
+
+  /** コミットポリシーを取得する */
+  public RlCommitPolicy getCommitPolicy() {
+    return commitPolicy;
+  }
+  
+  /** バックグラウンドリフレッシュを行うかを取得する */
+  public boolean isBackgroundRefresh() {
+    return refreshMaxStaleSec > 0;
+  }
+  
+  /** バックグラウンドリフレッシュで、世代待ちがある場合の最大の古さ(秒)を取得する */
+  public double getRefreshMinStaleSec() {
+    return refreshMinStaleSec;
+  }
+  
+  /** バックグラウンドリフレッシュで、世代待ちが無い場合の最大の古さ(秒)を取得する */
+  public double getRefreshMaxStaleSec() {
+    return refreshMaxStaleSec;
+  }
+
+  /** この設定の終了時にマージする最大セグメント数を取得する */
+  public int getFinishMergeSegments() {
+    return finishMergeSegments;
+  }
+
+  /**
+   * 新たな{@link IndexWriter}のための{@link IndexWriterConfig}を作成する
+   * @param analyzer アナライザ
+   * @return コンフィギュレーション
+   */
+  IndexWriterConfig createConfig(Analyzer analyzer) {
+    IndexWriterConfig config = new IndexWriterConfig(analyzer);
+    if (storedFieldsMode != null) {
+      config.setCodec(new Lucene70Codec(storedFieldsMode));
+    }
+    ConcurrentMergeScheduler scheduler = new ConcurrentMergeScheduler();
+    config.setMergeScheduler(scheduler);
+    applyLive(config, scheduler);
+    return config;
+  }
+  
+  /**
+   * オープン中の{@link IndexWriter}に、この設定を適用する。
+   * ストアフィールドの圧縮モード以外は、{@link IndexWriter}を作成しなおす必要はない。
+   * @param indexWriter 対象とする{@link IndexWriter}
+   */
+  void applyTo(IndexWriter indexWriter) {
+    applyLive(indexWriter.getConfig(), indexWriter.getConfig().getMergeScheduler());
+  }
+
+  private void applyLive(LiveIndexWriterConfig config, MergeScheduler scheduler) {
+    config.setRAMBufferSizeMB(ramBufferSizeMB > 0? ramBufferSizeMB:IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB);
+    config.setMergePolicy(deferMerges? NoMergePolicy.INSTANCE:createMergePolicy());
+    config.setUseCompoundFile(useCompoundFile);
+    if (scheduler instanceof ConcurrentMergeScheduler) {
+      if (mergeThreads > 0) {
+        ((ConcurrentMergeScheduler)scheduler).setMaxMergesAndThreads(mergeThreads + 5, mergeThreads);
+      } else {
+        ((ConcurrentMergeScheduler)scheduler).setMaxMergesAndThreads(
+          ConcurrentMergeScheduler.AUTO_DETECT_MERGES_AND_THREADS, 
+          ConcurrentMergeScheduler.AUTO_DETECT_MERGES_AND_THREADS);
+      }
+    }
+  }
+  
+  /** マージを行う場合の{@link MergePolicy}を作成する */
+  MergePolicy createMergePolicy() {
+    TieredMergePolicy policy = new TieredMergePolicy();
+    if (segmentsPerTier > 0) {
+      policy.setSegmentsPerTier(segmentsPerTier);
+      policy.setMaxMergeAtOnce((int)Math.max(2, Math.min(10, segmentsPerTier)));
+    }
+    if (floorSegmentMB > 0) {
+      policy.setFloorSegmentMB(floorSegmentMB);
+    }
+    return policy;
+  }
+
+  /**
+   * {@link RlWriterOptions}のビルダ
+   */
+  public static class Builder {
+    
+    private double ramBufferSizeMB;
+    private boolean deferMerges;
+    private double segmentsPerTier;
+    private double floorSegmentMB;
+    private int mergeThreads;
+    private Mode storedFieldsMode;
+    private boolean useCompoundFile = true;
+    private RlCommitPolicy commitPolicy = RlCommitPolicy.onWriterClose();
+    private double refreshMinStaleSec;
+    private double refreshMaxStaleSec;
+    private int finishMergeSegments;
+    
+    /** デフォルト値で作成する */
+    public Builder() {
+    }
+    
+    /** 既存の設定を元に作成する */
+    public Builder(RlWriterOptions options) {
+      this.ramBufferSizeMB = options.ramBufferSizeMB;
+      this.deferMerges = options.deferMerges;
+      this.segmentsPerTier = options.segmentsPerTier;
+      this.floorSegmentMB = options.floorSegmentMB;
+      this.mergeThreads = options.mergeThreads;
+      this.storedFieldsMode = options.storedFieldsMode;
+      this.useCompoundFile = options.useCompoundFile;
+      this.commitPolicy = options.commitPolicy;
+      this.refreshMinStaleSec = options.refreshMinStaleSec;
+      this.refreshMaxStaleSec = options.refreshMaxStaleSec;
+      this.finishMergeSegments = options.finishMergeSegments;
+    }
+
+    public Builder setRamBufferSizeMB(double value) {
+      this.ramBufferSizeMB = value;
+      return this;
+    }
+
+    public Builder setDeferMerges(boolean value) {
+      this.deferMerges = value;
+      return this;
+    }
+
+    public Builder setSegmentsPerTier(double value) {
+      this.segmentsPerTier = value;
+      return this;
+    }
+
+    public Builder setFloorSegmentMB(double value) {
+      this.floorSegmentMB = value;
+      return this;
+    }
+
+    public Builder setMergeThreads(int value) {
+      this.mergeThreads = value;
+      return this;
+    }
+
+    public Builder setStoredFieldsMode(Mode value) {
+      this.storedFieldsMode = value;
+      return this;
+    }
+
+    public Builder setUseCompoundFile(boolean value) {
+      this.useCompoundFile = value;
+      return this;
+    }
+
+    public Builder setCommitPolicy(RlCommitPolicy value) {
+      this.commitPolicy = value;
+      return this;
+    }
+    
+    /**
+     * バックグラウンドリフレッシュを指定する。
+     * <p>
+     * 指定しない場合、{@link RlSearcher}は検索のたびにリフレッシュするため、常に最新の書き込みを検索できるが、
+     * 書き込みが頻繁な場合は検索のたびにリフレッシュのコストを支払うことになる。
+     * 指定した場合は、バックグラウンドのスレッドがリフレッシュを行い、検索時にはリフレッシュを行わない。
+     * </p>
+     * @param minStaleSec {@link RlSearcher#awaitGeneration(long)}で待っているスレッドがある場合の最大の古さ(秒)
+     * @param maxStaleSec 待っているスレッドが無い場合の最大の古さ(秒)。0の場合はバックグラウンドリフレッシュを行わない
+     * @return このビルダ
+     */
+    public Builder setRefreshStaleSec(double minStaleSec, double maxStaleSec) {
+      this.refreshMinStaleSec = minStaleSec;
+      this.refreshMaxStaleSec = maxStaleSec;
+      return this;
+    }
+
+    public Builder setFinishMergeSegments(int value) {
+      this.finishMergeSegments = value;
+      return this;
+    }
+    
+    public RlWriterOptions build() {
+      if (ramBufferSizeMB < 0 || segmentsPerTier < 0 || floorSegmentMB < 0 || 
+          mergeThreads < 0 || finishMergeSegments < 0) {
+        throw new RlException.Config("設定値が負です");
+      }
+      if (segmentsPerTier > 0 && segmentsPerTier < 2) {
+        throw new RlException.Config("segmentsPerTierは2以上でなければなりません");
+      }
+      if (refreshMinStaleSec < 0 || refreshMaxStaleSec < 0 || 
+          refreshMaxStaleSec > 0 && refreshMinStaleSec > refreshMaxStaleSec) {
+        throw new RlException.Config("リフレッシュ間隔の指定が不正です");
+      }
+      if (commitPolicy == null) {
+        throw new RlException.Config("コミットポリシーが指定されていません");
+      }
+      RlWriterOptions o = new RlWriterOptions();
+      o.ramBufferSizeMB = ramBufferSizeMB;
+      o.deferMerges = deferMerges;
+      o.segmentsPerTier = segmentsPerTier;
+      o.floorSegmentMB = floorSegmentMB;
+      o.mergeThreads = mergeThreads;
+      o.storedFieldsMode = storedFieldsMode;
+      o.useCompoundFile = useCompoundFile;
+      o.commitPolicy = commitPolicy;
+      o.refreshMinStaleSec = refreshMinStaleSec;
+      o.refreshMaxStaleSec = refreshMaxStaleSec;
+      o.finishMergeSegments = finishMergeSegments;
+      return o;
+    }
+  }
+}
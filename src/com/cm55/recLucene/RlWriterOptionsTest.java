@@ -0,0 +1,72 @@
+package com.cm55.recLucene;
+
+import static org.junit.Assert.*;
+
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat.*;
+import org.apache.lucene.index.*;
+import org.junit.*;
+
+public class RlWriterOptionsTest {
+
+  RlDatabase database;
+  
+  @Before
+  public void before() {
+    database = new RlDatabase.Ram().add(Foo.class);
+  }
+  
+  @Test
+  public void 一括書き込みからの切り替え() throws Exception {
+    database.setWriterOptions(RlWriterOptions.BULK_LOAD);
+    assertSame(RlWriterOptions.BULK_LOAD, database.getWriterOptions());
+    
+    for (int i = 0; i < 5; i++) {
+      RlWriter writer = database.createWriter();
+      writer.write(new Foo("" + i, "test"));
+      writer.close();
+    }
+    
+    // コミットされていないが、検索は可能
+    try (RlSearcher<Foo> searcher = database.createSearcher(Foo.class)) {
+      assertEquals(5, searcher.getAllByPk().size());
+    }
+    assertFalse(DirectoryReader.indexExists(database.getDirectory()));
+    
+    // 切り替え時に一つのセグメントにマージされてコミットされる
+    database.setWriterOptions(RlWriterOptions.NRT);
+    try (DirectoryReader reader = DirectoryReader.open(database.getDirectory())) {
+      assertEquals(5, reader.numDocs());
+      assertEquals(1, reader.leaves().size());
+    }
+  }
+  
+  @Test
+  public void 圧縮モードの切り替え() {
+    RlWriter writer = database.createWriter();
+    writer.write(new Foo("1", "test"));
+    writer.close();
+    
+    database.setWriterOptions(new RlWriterOptions.Builder().setStoredFieldsMode(Mode.BEST_COMPRESSION).build());
+
+    writer = database.createWriter();
+    writer.write(new Foo("2", "test"));
+    writer.close();
+    
+    try (RlSearcher<Foo> searcher = database.createSearcher(Foo.class)) {
+      assertEquals(2, searcher.getAllByPk().size());
+    }
+  }
+  
+  public static class Foo {
+    @RlFieldAttr(pk=true)
+    public String id;
+    
+    public String text;
+    
+    public Foo() {}
+    public Foo(String id, String text) {
+      this.id = id;
+      this.text = text;
+    }
+  }
+}
@@ -33,6 +33,46 @@ public class RlWriterTest {
     assertNotNull(database.tryCreateWriter());
   }
 
+  @Test
+  public void 複数ライタの同時稼働() throws Exception {
+    database.setMaxWriters(4);
+    assertEquals(4, database.getMaxWriters());
+    
+    // 四つまでは同時に取得できる
+    List<RlWriter>writers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) writers.add(database.createWriter());
+    assertNull(database.tryCreateWriter());
+    
+    // それぞれのスレッドで書き込む
+    List<Thread>threads = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      RlWriter writer = writers.get(i);
+      int base = i * 100;
+      threads.add(new Thread(()-> {
+        for (int j = 0; j < 100; j++) writer.write(new Foo("" + (base + j), "test"));
+        writer.delete("id1", "" + base);
+        writer.close();
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread: threads) thread.join();
+    
+    RlWriter.Stats stats = writers.get(0).getStats();
+    assertEquals(100, stats.getWritten());
+    assertEquals(1, stats.getDeletes());
+    assertEquals(0, stats.getUpdates());
+    
+    RlSearcher<Foo> searcher = database.createSearcher(Foo.class);
+    assertEquals(396, searcher.getAllByPk().size());
+    searcher.close();
+    
+    // 減らした場合
+    database.setMaxWriters(1);
+    RlWriter writer = database.createWriter();
+    assertNull(database.tryCreateWriter());
+    writer.close();
+  }
+
   //@Test
   public void writerの機能() {
     
@@ -68,6 +108,71 @@ public class RlWriterTest {
     assertEquals(2, searcher.getAllByPk().size());
   }
   
+  @Test
+  public void writeAllのテスト() {
+    RlWriter writer = database.createWriter();
+    List<Foo>list = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) list.add(new Foo("" + i, "test" + i));
+    writer.writeAll(list);
+    writer.writeAll(list.stream().limit(10));
+    writer.close();
+
+    RlSearcher<Foo> searcher = database.createSearcher(Foo.class);
+    assertEquals(1000, searcher.getAllByPk().size());
+    assertEquals(1, searcher.search(new RlQuery.Match("id1", "123")).size());
+    searcher.close();
+  }
+
+  @Test
+  public void writeAll自由形式のテスト() {
+    RlAnyTable table = new RlAnyTable(
+      new RlField.Builder<>(String.class).setName("anyId").setPk(true).build(),
+      new RlField.Builder<>(String.class).setName("anyValue").build()
+    );
+    RlDatabase db = new RlDatabase.Ram().add(table);
+    RlWriter writer = db.createWriter();
+    writer.writeAll(table, java.util.stream.IntStream.range(0, 500).mapToObj(i-> {
+      RlValues values = new RlValues();
+      values.put("anyId", "" + i);
+      values.put("anyValue", "value" + i);
+      return values;
+    }));
+    writer.close();
+    
+    RlSearcher<RlValues> searcher = db.createSearcher(table);
+    assertEquals(500, searcher.getAllByPk().size());
+    searcher.close();
+  }
+  
+  @Test
+  public void 一括削除のテスト() {
+    RlWriter writer = database.createWriter();
+    for (int i = 0; i < 10; i++) writer.write(new Foo("" + i, "test" + (i % 2)));
+    for (int i = 0; i < 5; i++) writer.write(new FooBar(i, "foobar"));
+    
+    writer.deleteAll("id1", Arrays.asList("1", "2", "3"));
+    RlSearcher<Foo> searcher = database.createSearcher(Foo.class);
+    assertEquals(7, searcher.getAllByPk().size());
+    
+    writer.delete(Foo.class, new RlQuery.Word("testField", "test1"));
+    assertEquals(4, searcher.getAllByPk().size());
+    
+    RlSearcher<FooBar> fooBarSearcher = database.createSearcher(FooBar.class);
+    assertEquals(5, fooBarSearcher.getAllByField("id3").size());
+    writer.delete(Foo.class, new RlQuery.Match("id1", "0"));
+    assertEquals(3, searcher.getAllByPk().size());
+    assertEquals(5, fooBarSearcher.getAllByField("id3").size());
+    
+    // nullの値は指定できない
+    try {
+      writer.deleteAll("id1", Arrays.asList("4", null));
+      fail();
+    } catch (RlException.Usage ex) {}
+    assertEquals(3, searcher.getAllByPk().size());
+    
+    writer.close();
+  }
+  
   public static class Foo {
     @RlFieldAttr(pk=true)
     public String id1;